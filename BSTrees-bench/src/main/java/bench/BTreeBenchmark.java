@@ -0,0 +1,79 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.Map;
+import impl.BTreeMap;
+
+/**
+ * BTreeBenchmark
+ *
+ * Compares lookups in BTreeMap, at several orders, with lookups in
+ * the binary trees, on key sets far bigger than the CPU caches, 
+ * where each level of a binary tree tends to cost a cache miss.
+ * tree is a TreeKind name, or "BTREE-" and an order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class BTreeBenchmark {
+
+    @Param({"BST", "AVL", "RBT", "BTREE-8", "BTREE-32", "BTREE-128"})
+    public String tree;
+
+    @Param({"1000000", "4000000"})
+    public int size;
+
+    private Map<Integer, Integer> map;
+
+    private int[] probes;
+
+    private int probeIndex;
+
+    @Setup
+    public void setup() {
+        if (tree.startsWith("BTREE-"))
+            map = new BTreeMap<Integer, Integer>(Integer.parseInt(tree.substring(6)));
+        else
+            map = TreeKind.valueOf(tree).create();
+        int[] keys = KeyOrder.RANDOM.keys(size, Integer.MAX_VALUE, 42);
+        for (int key : keys)
+            map.put(key, key);
+
+        Random r = new Random(7);
+        probes = new int[1 << 20];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = keys[r.nextInt(size)];
+        probeIndex = 0;
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(probes[probeIndex++ & (probes.length - 1)]);
+    }
+
+    /**
+     * Lookups of keys next to ones in the map, which (with keys
+     * this sparse) are almost never in it themselves
+     */
+    @Benchmark
+    public Integer getMissing() {
+        return map.get(probes[probeIndex++ & (probes.length - 1)] ^ 1);
+    }
+}
@@ -0,0 +1,102 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.OrderedMap;
+
+/**
+ * BatchPutBenchmark
+ *
+ * Compares merging a batch of updates with putAll() against putting
+ * the batch's keys one at a time. Each invocation merges a different
+ * batch into a tree that starts every iteration with size keys (it
+ * is rebuilt with loadSorted(), so the rebuild is cheap); half of
+ * each batch's keys are already in the tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BatchPutBenchmark {
+
+    @Param({"AVL", "RBT", "BST"})
+    public TreeKind kind;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"100", "10000"})
+    public int batchSize;
+
+    /**
+     * The number of different batches to cycle through
+     */
+    private static final int BATCHES = 64;
+
+    private Integer[][] batchKeys;
+
+    private String[][] batchValues;
+
+    private int batchIndex;
+
+    private OrderedMap<Integer, String> tree;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        batchKeys = new Integer[BATCHES][batchSize];
+        batchValues = new String[BATCHES][batchSize];
+        for (int b = 0; b < BATCHES; b++)
+            for (int i = 0; i < batchSize; i++) {
+                // the tree holds the even keys in [0, 2 * size)
+                batchKeys[b][i] = r.nextInt(2 * size);
+                batchValues[b][i] = "b" + b;
+            }
+    }
+
+    @Setup(Level.Iteration)
+    public void rebuild() {
+        Integer[] keys = new Integer[size];
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = 2 * i;
+            values[i] = "a";
+        }
+        tree = kind.createOrdered();
+        tree.loadSorted(keys, values);
+        batchIndex = 0;
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, String> putAll() {
+        int b = batchIndex++ % BATCHES;
+        tree.putAll(batchKeys[b], batchValues[b]);
+        return tree;
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, String> putEach() {
+        int b = batchIndex++ % BATCHES;
+        Integer[] keys = batchKeys[b];
+        String[] values = batchValues[b];
+        for (int i = 0; i < keys.length; i++)
+            tree.put(keys[i], values[i]);
+        return tree;
+    }
+}
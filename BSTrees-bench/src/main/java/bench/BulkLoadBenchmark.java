@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.OrderedMap;
+
+/**
+ * BulkLoadBenchmark
+ *
+ * Compares building a tree from sorted keys with loadSorted()
+ * against putting the same keys one at a time, which is what
+ * reloading a map from a sorted snapshot used to take.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class BulkLoadBenchmark {
+
+    @Param({"AVL", "RBT", "BST"})
+    public TreeKind kind;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private Integer[] keys;
+
+    private Integer[] values;
+
+    @Setup
+    public void setup() {
+        keys = new Integer[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = 2 * i;
+        values = Arrays.copyOf(keys, size);
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, Integer> loadSorted() {
+        OrderedMap<Integer, Integer> tree = kind.createOrdered();
+        tree.loadSorted(keys, values);
+        return tree;
+    }
+
+    /**
+     * Putting sorted keys into BasicBSTMap builds a linked list, so
+     * for BST this is only practical at the smaller size.
+     */
+    @Benchmark
+    public OrderedMap<Integer, Integer> putEach() {
+        OrderedMap<Integer, Integer> tree = kind.createOrdered();
+        for (int i = 0; i < size; i++)
+            tree.put(keys[i], values[i]);
+        return tree;
+    }
+}
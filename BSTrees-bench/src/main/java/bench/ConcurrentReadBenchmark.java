@@ -0,0 +1,157 @@
+package bench;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.Map;
+import impl.ConcurrentTreeMap;
+
+/**
+ * ConcurrentReadBenchmark
+ *
+ * Measures the throughput of lookups in a map shared by many
+ * threads, comparing ConcurrentTreeMap with wrapping the same tree
+ * in synchronized methods. get is read-only; run it with JMH's -t
+ * option at 1, 2, 4, ... threads to see how reads scale with the
+ * number of cores. The readWrite group has three threads reading
+ * while one keeps putting and removing keys, so the optimistic
+ * reads sometimes fail and have to fall back to the read lock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ConcurrentReadBenchmark {
+
+    /**
+     * How the shared map is made safe to share
+     */
+    public enum Wrapper {
+        SYNCHRONIZED {
+            <V> Map<Integer, V> wrap(Map<Integer, V> tree) {
+                return new SynchronizedMap<V>(tree);
+            }
+        },
+        STAMPED {
+            <V> Map<Integer, V> wrap(Map<Integer, V> tree) {
+                return new ConcurrentTreeMap<Integer, V>(tree);
+            }
+        };
+
+        abstract <V> Map<Integer, V> wrap(Map<Integer, V> tree);
+    }
+
+    @Param({"AVL", "RBT", "ARENA"})
+    public TreeKind kind;
+
+    @Param({"SYNCHRONIZED", "STAMPED"})
+    public Wrapper wrapper;
+
+    @Param({"100000"})
+    public int size;
+
+    private Map<Integer, Integer> map;
+
+    @Setup
+    public void setup() {
+        map = wrapper.wrap(kind.<Integer>create());
+        int[] keys = KeyOrder.RANDOM.keys(size, size, 42);
+        for (int key : keys)
+            map.put(key, key);
+    }
+
+    /**
+     * Each thread's own stream of keys to look up (or to write)
+     */
+    @State(Scope.Thread)
+    public static class Probes {
+        private int[] keys;
+
+        private int index;
+
+        @Setup
+        public void setup(ConcurrentReadBenchmark benchmark) {
+            Random r = new Random(Thread.currentThread().getId());
+            keys = new int[1 << 16];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = r.nextInt(2 * benchmark.size);
+            index = 0;
+        }
+
+        int next() {
+            return keys[index++ & (keys.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public Integer get(Probes probes) {
+        return map.get(probes.next());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Integer reader(Probes probes) {
+        return map.get(probes.next());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(Probes probes) {
+        int key = probes.next();
+        if ((key & 1) == 0)
+            map.put(key, key);
+        else
+            map.remove(key - 1);
+    }
+
+    /**
+     * The baseline: every operation synchronized on the map, so
+     * readers wait for each other as well as for writers.
+     */
+    static class SynchronizedMap<V> implements Map<Integer, V> {
+        private final Map<Integer, V> internal;
+
+        SynchronizedMap(Map<Integer, V> internal) {
+            this.internal = internal;
+        }
+
+        public synchronized void put(Integer key, V val) {
+            internal.put(key, val);
+        }
+
+        public synchronized void remove(Integer key) {
+            internal.remove(key);
+        }
+
+        public synchronized V get(Integer key) {
+            return internal.get(key);
+        }
+
+        public synchronized boolean containsKey(Integer key) {
+            return internal.containsKey(key);
+        }
+
+        public synchronized Iterator<Integer> iterator() {
+            return internal.iterator();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.Map;
+import impl.Codec;
+import impl.DurableMap;
+
+/**
+ * DurablePutBenchmark
+ *
+ * Measures what durability costs per put. plainPut puts into the
+ * bare tree (synchronized, so that it can be shared like the durable
+ * map); durablePut puts through a DurableMap, which doesn't return
+ * until the put is forced to its log. Run them with JMH's -t option
+ * at 1, 2, 4, ... threads: with one thread every put pays for its
+ * own force, and with more, group commit lets one force cover many
+ * puts. The groupCommit group runs eight writers at once.
+ *
+ * The log goes in the default temporary directory, so the numbers
+ * depend on the disk under it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurablePutBenchmark {
+
+    @Param({"AVL", "RBT"})
+    public TreeKind kind;
+
+    private Map<Integer, Integer> plain;
+
+    private DurableMap<Integer, Integer> durable;
+
+    private Path directory;
+
+    @Setup
+    public void setup() throws IOException {
+        plain = kind.createOrdered();
+        directory = Files.createTempDirectory("durable");
+        durable = new DurableMap<Integer, Integer>(kind.<Integer>createOrdered(),
+                Codec.INT, Codec.INT, directory.resolve("log"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        durable.close();
+        Files.deleteIfExists(directory.resolve("log"));
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Each thread's own stream of keys to put
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random(Thread.currentThread().getId());
+
+        int next() {
+            return random.nextInt(1 << 20);
+        }
+    }
+
+    @Benchmark
+    public void plainPut(Keys keys) {
+        int key = keys.next();
+        synchronized (plain) {
+            plain.put(key, key);
+        }
+    }
+
+    @Benchmark
+    public void durablePut(Keys keys) {
+        int key = keys.next();
+        durable.put(key, key);
+    }
+
+    @Benchmark
+    @Group("groupCommit")
+    @GroupThreads(8)
+    public void groupedPut(Keys keys) {
+        int key = keys.next();
+        durable.put(key, key);
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.Map;
+import adt.OrderedMap;
+
+/**
+ * FreezeBenchmark
+ *
+ * Compares lookups in a tree with lookups in the frozen copy of the
+ * same tree, from key sets that fit in the CPU caches to ones far
+ * bigger. tree names one of the binary-tree TreeKinds; frozen says
+ * whether to search the tree's frozen copy instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class FreezeBenchmark {
+
+    @Param({"BST", "AVL", "RBT"})
+    public String tree;
+
+    @Param({"false", "true"})
+    public boolean frozen;
+
+    @Param({"10000", "1000000", "4000000"})
+    public int size;
+
+    private Map<Integer, Integer> map;
+
+    private int[] probes;
+
+    private int probeIndex;
+
+    @Setup
+    public void setup() {
+        OrderedMap<Integer, Integer> source = TreeKind.valueOf(tree).createOrdered();
+        int[] keys = KeyOrder.RANDOM.keys(size, Integer.MAX_VALUE, 42);
+        for (int key : keys)
+            source.put(key, key);
+        map = frozen ? source.freeze() : source;
+
+        Random r = new Random(7);
+        probes = new int[1 << 20];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = keys[r.nextInt(size)];
+        probeIndex = 0;
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(probes[probeIndex++ & (probes.length - 1)]);
+    }
+
+    /**
+     * Lookups of keys next to ones in the map, which (with keys
+     * this sparse) are almost never in it themselves
+     */
+    @Benchmark
+    public Integer getMissing() {
+        return map.get(probes[probeIndex++ & (probes.length - 1)] ^ 1);
+    }
+}
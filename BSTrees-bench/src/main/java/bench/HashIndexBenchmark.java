@@ -0,0 +1,111 @@
+package bench;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.OrderedMap;
+
+/**
+ * HashIndexBenchmark
+ *
+ * Compares HashIndexedTreeMap with the plain trees on what the hash
+ * index speeds up (lookups and updates of keys already in the map),
+ * what it slows down (inserting and removing, which also update the
+ * index), and what it leaves alone (iterating a range), so that the
+ * gain can be weighed against the index's extra memory, 8 to 16
+ * bytes per key with compressed references.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class HashIndexBenchmark {
+
+    @Param({"AVL", "RBT", "HASHED"})
+    public String kind;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private OrderedMap<Integer, Integer> map;
+
+    private int[] probes;
+
+    private int probeIndex;
+
+    @Setup
+    public void setup() {
+        map = TreeKind.valueOf(kind).createOrdered();
+        int[] keys = KeyOrder.RANDOM.keys(size, Integer.MAX_VALUE, 42);
+        for (int key : keys)
+            map.put(key, key);
+
+        Random r = new Random(7);
+        probes = new int[1 << 20];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = keys[r.nextInt(size)];
+        probeIndex = 0;
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(probes[probeIndex++ & (probes.length - 1)]);
+    }
+
+    /**
+     * Lookups of keys next to ones in the map, which (with keys
+     * this sparse) are almost never in it themselves
+     */
+    @Benchmark
+    public boolean containsMissing() {
+        return map.containsKey(probes[probeIndex++ & (probes.length - 1)] ^ 1);
+    }
+
+    /**
+     * Puts that change the value of a key already in the map
+     */
+    @Benchmark
+    public void update() {
+        int key = probes[probeIndex++ & (probes.length - 1)];
+        map.put(key, probeIndex);
+    }
+
+    /**
+     * Remove a key and put it back, which changes the tree's shape
+     * (and the index) twice
+     */
+    @Benchmark
+    public void removeAndPut() {
+        int key = probes[probeIndex++ & (probes.length - 1)];
+        map.remove(key);
+        map.put(key, key);
+    }
+
+    /**
+     * Iterate over the (about) 16 keys starting at a key in the map
+     */
+    @Benchmark
+    public int range() {
+        int key = probes[probeIndex++ & (probes.length - 1)];
+        int sum = 0;
+        Iterator<Integer> it = map.tailIterator(key);
+        for (int i = 0; i < 16 && it.hasNext(); i++)
+            sum += it.next();
+        return sum;
+    }
+}
@@ -0,0 +1,111 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.IntMap;
+import adt.Map;
+import impl.IntAVLTreeMap;
+import impl.IntRedBlackTreeMap;
+
+/**
+ * IntMapBenchmark
+ *
+ * Compares the int-keyed trees with their boxed counterparts on
+ * the same keys: IntAVLTreeMap against AVLTreeMap and
+ * IntRedBlackTreeMap against RedBlackTreeMap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class IntMapBenchmark {
+
+    /**
+     * Which pair of trees to compare
+     */
+    @Param({"AVL", "RBT"})
+    public TreeKind kind;
+
+    @Param({"1000", "1000000"})
+    public int size;
+
+    private int[] keys;
+
+    private int[] probes;
+
+    private int probeIndex;
+
+    private Map<Integer, Integer> boxed;
+
+    private IntMap<Integer> primitive;
+
+    /**
+     * Make a new, empty int-keyed map of the kind being measured.
+     */
+    private IntMap<Integer> createPrimitive() {
+        return kind == TreeKind.RBT ? new IntRedBlackTreeMap<Integer>()
+                : new IntAVLTreeMap<Integer>();
+    }
+
+    @Setup
+    public void setup() {
+        keys = KeyOrder.RANDOM.keys(size, size, 42);
+        boxed = kind.create();
+        primitive = createPrimitive();
+        for (int i = 0; i < keys.length; i++) {
+            boxed.put(keys[i], i);
+            primitive.put(keys[i], i);
+        }
+
+        Random r = new Random(7);
+        probes = new int[1 << 16];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = r.nextInt(size);
+        probeIndex = 0;
+    }
+
+    private int nextProbe() {
+        return probes[probeIndex++ & (probes.length - 1)];
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> putBoxed() {
+        Map<Integer, Integer> fresh = kind.create();
+        for (int i = 0; i < keys.length; i++)
+            fresh.put(keys[i], i);
+        return fresh;
+    }
+
+    @Benchmark
+    public IntMap<Integer> putPrimitive() {
+        IntMap<Integer> fresh = createPrimitive();
+        for (int i = 0; i < keys.length; i++)
+            fresh.put(keys[i], i);
+        return fresh;
+    }
+
+    @Benchmark
+    public Integer getBoxed() {
+        return boxed.get(nextProbe());
+    }
+
+    @Benchmark
+    public Integer getPrimitive() {
+        return primitive.get(nextProbe());
+    }
+}
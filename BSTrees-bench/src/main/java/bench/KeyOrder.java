@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * KeyOrder
+ *
+ * The order in which a benchmark feeds keys to a map. Random order
+ * is what ThreeTreesTest measured; the sorted orders are the worst
+ * case for BasicBSTMap and the rotation-heavy case for the balanced
+ * trees.
+ */
+public enum KeyOrder {
+
+    RANDOM, ASCENDING, DESCENDING;
+
+    /**
+     * Generate a sequence of keys in this order.
+     * @param n The number of keys to generate
+     * @param range Keys are drawn from [0, range); if range is less
+     * than n, some keys necessarily repeat
+     * @param seed Seed for the random order, so that every trial
+     * sees the same keys
+     * @return The keys
+     */
+    public int[] keys(int n, int range, long seed) {
+        int[] keys = new int[n];
+        if (this == RANDOM) {
+            Random r = new Random(seed);
+            for (int i = 0; i < n; i++)
+                keys[i] = r.nextInt(range);
+        }
+        else {
+            // spread [0, range) evenly over the n slots, so that
+            // repeated keys sit next to each other
+            for (int i = 0; i < n; i++) {
+                int k = (int) ((long) i * range / n);
+                keys[this == ASCENDING ? i : n - 1 - i] = k;
+            }
+        }
+        return keys;
+    }
+}
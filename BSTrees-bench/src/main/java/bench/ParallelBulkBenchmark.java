@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.OrderedMap;
+
+/**
+ * ParallelBulkBenchmark
+ *
+ * Compares the fork-join bulk operations with doing the same work
+ * on one thread through the iterator: revalueEach rewrites every
+ * value with iterator(), get() and put() (two searches per key), 
+ * and sumEach adds up the values the same way. The tree is built 
+ * once per trial; revaluing only changes values, so its shape stays
+ * the same throughout.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ParallelBulkBenchmark {
+
+    @Param({"AVL", "RBT"})
+    public TreeKind kind;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private OrderedMap<Integer, Long> tree;
+
+    @Setup
+    public void setup() {
+        Integer[] keys = new Integer[size];
+        Long[] values = new Long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            values[i] = (long) i;
+        }
+        tree = kind.createOrdered();
+        tree.loadSorted(keys, values);
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, Long> revalueEach() {
+        for (Integer key : tree)
+            tree.put(key, tree.get(key) * 3 + 1);
+        return tree;
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, Long> replaceAllValues() {
+        tree.replaceAllValues((key, value) -> value * 3 + 1);
+        return tree;
+    }
+
+    @Benchmark
+    public long sumEach() {
+        long sum = 0;
+        for (Integer key : tree)
+            sum += tree.get(key);
+        return sum;
+    }
+
+    @Benchmark
+    public long reduceValues() {
+        return tree.reduceValues(0L, Long::sum);
+    }
+}
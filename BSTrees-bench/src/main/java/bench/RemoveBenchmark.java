@@ -0,0 +1,132 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.Map;
+
+/**
+ * RemoveBenchmark
+ *
+ * Measures remove(): removeHalf times removing every other key
+ * from a freshly built tree of distinct keys (rebuilt before every
+ * invocation, outside the timing). getAfterRemove times lookups in
+ * a tree that has had half its keys removed, to show how well each
+ * tree keeps its shape through deletions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RemoveBenchmark {
+
+    @Param({"BST", "AVL", "RBT", "ARENA"})
+    public TreeKind kind;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"RANDOM", "ASCENDING"})
+    public KeyOrder order;
+
+    /**
+     * The keys put into the tree; distinct, in the order put
+     */
+    private int[] keys;
+
+    /**
+     * The keys removed by removeHalf(), in the order removed
+     */
+    private int[] doomed;
+
+    private int[] probes;
+
+    private int probeIndex;
+
+    /**
+     * A tree that has had half its keys removed
+     */
+    private Map<Integer, Integer> thinned;
+
+    @Setup
+    public void setup() {
+        keys = new int[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = order == KeyOrder.DESCENDING ? size - 1 - i : i;
+        shuffleIf(order == KeyOrder.RANDOM, keys, new Random(42));
+
+        doomed = new int[size / 2];
+        for (int i = 0; i < doomed.length; i++)
+            doomed[i] = 2 * i;
+        shuffleIf(order == KeyOrder.RANDOM, doomed, new Random(43));
+
+        thinned = build();
+        for (int key : doomed)
+            thinned.remove(key);
+
+        Random r = new Random(7);
+        probes = new int[1 << 16];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = r.nextInt(size);
+        probeIndex = 0;
+    }
+
+    private static void shuffleIf(boolean really, int[] a, Random r) {
+        if (!really)
+            return;
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1), temp = a[i];
+            a[i] = a[j];
+            a[j] = temp;
+        }
+    }
+
+    private Map<Integer, Integer> build() {
+        Map<Integer, Integer> tree = kind.create();
+        for (int key : keys)
+            tree.put(key, key);
+        return tree;
+    }
+
+    /**
+     * A tree to remove from, rebuilt before every invocation of
+     * removeHalf() (and only of removeHalf()).
+     */
+    @State(Scope.Thread)
+    public static class FreshTree {
+        Map<Integer, Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void rebuild(RemoveBenchmark benchmark) {
+            tree = benchmark.build();
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> removeHalf(FreshTree fresh) {
+        for (int key : doomed)
+            fresh.tree.remove(key);
+        return fresh.tree;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Integer getAfterRemove() {
+        return thinned.get(probes[probeIndex++ & (probes.length - 1)]);
+    }
+}
@@ -0,0 +1,95 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.Map;
+import impl.CachedMap;
+
+/**
+ * SkewedGetBenchmark
+ *
+ * Measures the average (amortized) time of a get when the keys
+ * looked up follow a Zipfian distribution: the key of popularity
+ * rank r is looked up with probability proportional to 1 / r^skew.
+ * A skew of 0 is uniform; around 1 is typical of real request
+ * traffic, where a few hot keys get most of the lookups. The ranks
+ * are given to the keys at random, so the hot keys are scattered
+ * through the key order rather than bunched together. cache is the
+ * capacity of a CachedMap put in front of the tree, or 0 for none.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class SkewedGetBenchmark {
+
+    @Param({"BST", "AVL", "RBT", "SPLAY"})
+    public String kind;
+
+    @Param({"0", "0.8", "0.99", "1.2"})
+    public double skew;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"0", "4096"})
+    public int cache;
+
+    private Map<Integer, Integer> map;
+
+    private int[] probes;
+
+    private int probeIndex;
+
+    @Setup
+    public void setup() {
+        map = TreeKind.valueOf(kind).create();
+        int[] keys = KeyOrder.RANDOM.keys(size, Integer.MAX_VALUE, 42);
+        for (int key : keys)
+            map.put(key, key);
+
+        // cumulative[r] is the probability that a lookup is for one
+        // of the keys of rank at most r
+        double[] cumulative = new double[size];
+        double total = 0;
+        for (int r = 0; r < size; r++) {
+            total += 1 / Math.pow(r + 1, skew);
+            cumulative[r] = total;
+        }
+        Random random = new Random(7);
+        probes = new int[1 << 20];
+        for (int i = 0; i < probes.length; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            if (rank < 0)
+                rank = -rank - 1;
+            // keys came in random order, so the rank-th one is a
+            // random key
+            probes[i] = keys[Math.min(rank, size - 1)];
+        }
+        probeIndex = 0;
+
+        if (cache > 0)
+            map = new CachedMap<Integer, Integer>(map, cache);
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(probes[probeIndex++ & (probes.length - 1)]);
+    }
+}
@@ -0,0 +1,109 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adt.OrderedMap;
+import impl.Codec;
+import impl.MapSnapshot;
+
+/**
+ * SnapshotBenchmark
+ *
+ * Compares saving and reloading a map through MapSnapshot with the
+ * text format we used before: one "key value" line per association,
+ * written by iterating and calling get(), and read back by putting
+ * the keys one at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+    @Param({"AVL", "RBT"})
+    public TreeKind kind;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private final MapSnapshot<Integer, Integer> snapshot =
+            new MapSnapshot<Integer, Integer>(Codec.INT, Codec.INT);
+
+    private OrderedMap<Integer, Integer> tree;
+
+    private Path binaryFile, textFile;
+
+    @Setup
+    public void setup() throws IOException {
+        tree = kind.createOrdered();
+        for (int key : KeyOrder.RANDOM.keys(size, 4 * size, 42))
+            tree.put(key, key);
+        binaryFile = Files.createTempFile("snapshot", ".bin");
+        textFile = Files.createTempFile("snapshot", ".txt");
+        saveBinary();
+        saveText();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(binaryFile);
+        Files.deleteIfExists(textFile);
+    }
+
+    @Benchmark
+    public Path saveBinary() throws IOException {
+        snapshot.save(tree, binaryFile);
+        return binaryFile;
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, Integer> loadBinary() throws IOException {
+        OrderedMap<Integer, Integer> loaded = kind.createOrdered();
+        snapshot.load(binaryFile, loaded);
+        return loaded;
+    }
+
+    @Benchmark
+    public Path saveText() throws IOException {
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(textFile, StandardCharsets.UTF_8))) {
+            for (Integer key : tree)
+                out.println(key + " " + tree.get(key));
+        }
+        return textFile;
+    }
+
+    @Benchmark
+    public OrderedMap<Integer, Integer> loadText() throws IOException {
+        OrderedMap<Integer, Integer> loaded = kind.createOrdered();
+        try (BufferedReader in = Files.newBufferedReader(textFile, StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                int space = line.indexOf(' ');
+                loaded.put(Integer.parseInt(line.substring(0, space)),
+                        Integer.parseInt(line.substring(space + 1)));
+            }
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,105 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import adt.Map;
+import adt.OrderedMap;
+import impl.AVLTreeMap;
+import impl.ArenaAVLTreeMap;
+import impl.BTreeMap;
+import impl.BasicBSTMap;
+import impl.Codec;
+import impl.HashIndexedTreeMap;
+import impl.MappedBPlusTreeMap;
+import impl.PersistentAVLTreeMap;
+import impl.RedBlackTreeMap;
+import impl.SplayTreeMap;
+
+/**
+ * TreeKind
+ *
+ * The map implementations the benchmarks can be run against,
+ * selected by name through a JMH @Param. Each constant knows how
+ * to make a fresh, empty instance of its map.
+ */
+public enum TreeKind {
+
+    BST {
+        public <V> OrderedMap<Integer, V> createOrdered() {
+            return new BasicBSTMap<Integer, V>();
+        }
+    },
+    AVL {
+        public <V> OrderedMap<Integer, V> createOrdered() {
+            return new AVLTreeMap<Integer, V>();
+        }
+    },
+    RBT {
+        public <V> OrderedMap<Integer, V> createOrdered() {
+            return new RedBlackTreeMap<Integer, V>();
+        }
+    },
+    HASHED {
+        public <V> OrderedMap<Integer, V> createOrdered() {
+            return new HashIndexedTreeMap<Integer, V>();
+        }
+    },
+    ARENA {
+        public <V> Map<Integer, V> create() {
+            return new ArenaAVLTreeMap<Integer, V>();
+        }
+    },
+    PERSISTENT {
+        public <V> Map<Integer, V> create() {
+            return new PersistentAVLTreeMap<Integer, V>();
+        }
+    },
+    BTREE {
+        public <V> Map<Integer, V> create() {
+            return new BTreeMap<Integer, V>();
+        }
+    },
+    SPLAY {
+        public <V> Map<Integer, V> create() {
+            return new SplayTreeMap<Integer, V>();
+        }
+    },
+    /**
+     * A MappedBPlusTreeMap in a new temporary file, deleted when the
+     * JVM exits. Its values are stored as ints, so V must be Integer.
+     */
+    MAPPED {
+        @SuppressWarnings("unchecked")
+        public <V> Map<Integer, V> create() {
+            try {
+                Path file = Files.createTempFile("bench", ".bpt");
+                file.toFile().deleteOnExit();
+                return new MappedBPlusTreeMap<Integer, V>(file, Codec.INT, (Codec<V>) Codec.INT);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    /**
+     * Make a new, empty map of this kind.
+     * @return The new map
+     */
+    public <V> Map<Integer, V> create() {
+        return createOrdered();
+    }
+
+    /**
+     * Make a new, empty map of this kind, for benchmarks of the
+     * OrderedMap operations.
+     * @return The new map
+     * @throws UnsupportedOperationException if this kind of map
+     * is not an OrderedMap
+     */
+    public <V> OrderedMap<Integer, V> createOrdered() {
+        throw new UnsupportedOperationException(name() + " is not an OrderedMap");
+    }
+}
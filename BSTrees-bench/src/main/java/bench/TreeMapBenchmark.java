@@ -0,0 +1,163 @@
+package bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import adt.Map;
+import impl.MappedBPlusTreeMap;
+
+/**
+ * TreeMapBenchmark
+ *
+ * JMH replacement for the timing loops in ThreeTreesTest. Every
+ * combination of map kind, tree size, key redundancy, and key order
+ * is measured in forked, warmed-up JVMs, and every trial gets its
+ * own freshly built tree (so rounds no longer pile keys into the
+ * same instance).
+ *
+ * put measures building a whole tree of size puts from empty
+ * (for MAPPED, emptying and refilling one map per trial, so as not
+ * to measure making and mapping a new file);
+ * get and containsKey measure one lookup against a prebuilt tree;
+ * iterate measures one full in-order traversal.
+ *
+ * Run with the JMH runner, for example
+ *     java -jar benchmarks.jar TreeMapBenchmark -p kind=AVL,RBT
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TreeMapBenchmark {
+
+    /**
+     * Which map implementation to measure
+     */
+    @Param({"BST", "AVL", "RBT", "ARENA", "PERSISTENT", "MAPPED", "BTREE", "SPLAY", "HASHED"})
+    public TreeKind kind;
+
+    /**
+     * The number of puts used to build the tree
+     */
+    @Param({"1000", "100000"})
+    public int size;
+
+    /**
+     * How many times, on average, each key is put. Keys are drawn
+     * from a range of size / redundancy values, so 1 means (mostly)
+     * distinct keys, as at the low end of ThreeTreesTest's ranges.
+     */
+    @Param({"1", "10"})
+    public int redundancy;
+
+    /**
+     * The order the keys are put in
+     */
+    @Param({"RANDOM", "ASCENDING", "DESCENDING"})
+    public KeyOrder order;
+
+    /**
+     * The keys to put, in order
+     */
+    private int[] keys;
+
+    /**
+     * Keys to look up, cycled through by get() and containsKey();
+     * the length is a power of two so we can mask instead of mod
+     */
+    private int[] probes;
+
+    private int probeIndex;
+
+    /**
+     * A tree built from keys, for the read benchmarks
+     */
+    private Map<Integer, Integer> tree;
+
+    /**
+     * The map put() refills, for MAPPED; null for the other kinds
+     */
+    private MappedBPlusTreeMap<Integer, Integer> scratch;
+
+    @Setup
+    public void setup() {
+        int range = Math.max(1, size / redundancy);
+        keys = order.keys(size, range, 42);
+
+        if (kind == TreeKind.MAPPED)
+            scratch = (MappedBPlusTreeMap<Integer, Integer>) kind.<Integer>create();
+        tree = kind.create();
+        for (int i = 0; i < keys.length; i++)
+            tree.put(keys[i], i);
+
+        Random r = new Random(7);
+        probes = new int[1 << 16];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = r.nextInt(range);
+        probeIndex = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (tree instanceof Closeable)
+            ((Closeable) tree).close();
+        if (scratch != null)
+            scratch.close();
+    }
+
+    /**
+     * Get the next key to look up.
+     * @return The key
+     */
+    private int nextProbe() {
+        return probes[probeIndex++ & (probes.length - 1)];
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> put() {
+        Map<Integer, Integer> fresh;
+        if (scratch != null) {
+            scratch.clear();
+            fresh = scratch;
+        }
+        else
+            fresh = kind.create();
+        for (int i = 0; i < keys.length; i++)
+            fresh.put(keys[i], i);
+        return fresh;
+    }
+
+    @Benchmark
+    public Integer get() {
+        return tree.get(nextProbe());
+    }
+
+    @Benchmark
+    public boolean containsKey() {
+        return tree.containsKey(nextProbe());
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        for (Integer key : tree)
+            bh.consume(key);
+    }
+}
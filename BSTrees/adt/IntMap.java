@@ -0,0 +1,46 @@
+package adt;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * IntMap
+ *
+ * Interface for a map whose keys are primitive ints. It is the
+ * map ADT with the key type fixed, so that implementations can
+ * store and compare keys without boxing them.
+ * (As with Map, get() returns null for non-existent keys.)
+ *
+ * @param <V> The value-type of the map
+ */
+
+public interface IntMap<V> {
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    void put(int key, V val);
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    V get(int key);
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    boolean containsKey(int key);
+
+    /**
+     * Iterator that returns the keys in sorted order, without
+     * boxing them.
+     * @return The iterator
+     */
+    PrimitiveIterator.OfInt keyIterator();
+
+}
@@ -1,5 +1,9 @@
 package adt;
 
+import java.util.AbstractMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Map
  * 
@@ -12,8 +16,14 @@ package adt;
  * for Maps that I already had assumed. Similarly put() doesn't
  * throw a FullContainerException.
  *
- * This differs from other projects involving maps in that
- * the remove operation is eliminated.
+ * Implementations are expected to release whatever they held
+ * for a key when it is removed, so that a map that lives a long
+ * time takes space in proportion to the keys it currently has.
+ *
+ * keys() and entries() stream the map's contents. By default they
+ * are built on iterator() (and get() for each entry), which cannot
+ * be split for parallel streams; the tree maps override them (and
+ * spliterator()) to split by subtree.
  * 
  * @author Thomas VanDrunen
  * CSCI 345, Wheaton College
@@ -46,6 +56,30 @@ public interface Map<K, V> extends Iterable<K> {
      */
     boolean containsKey(K key);
 
+    /**
+     * Remove the association for this key, if any. If there
+     * is no association for this key, nothing happens.
+     * @param key The key whose association we're removing.
+     */
+    void remove(K key);
 
+    /**
+     * A stream of the keys, in the order iterator() returns them.
+     * @return The stream; call parallel() on it to process the
+     * keys on several threads
+     */
+    default Stream<K> keys() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * A stream of the associations, in the order iterator() returns
+     * their keys. The entries are snapshots; they don't change if
+     * the map does.
+     * @return The stream
+     */
+    default Stream<java.util.Map.Entry<K, V>> entries() {
+        return keys().map(key -> new AbstractMap.SimpleImmutableEntry<K, V>(key, get(key)));
+    }
 
 }
@@ -0,0 +1,183 @@
+package adt;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+/**
+ * OrderedMap
+ *
+ * Interface for a map whose keys are kept in sorted order, so
+ * that it can answer questions about the position of a key among
+ * all the keys: how many keys come before it (rank), which key is
+ * in a given position (select), and how many keys fall in a range.
+ * Implementations that keep the size of every subtree can answer
+ * all of these in time proportional to the height of the tree.
+ *
+ * It can also find the keys nearest a given key (floor and ceiling)
+ * and iterate over just part of the keys, starting from a given key.
+ * Those iterators find their starting point with one search and then
+ * go on lazily, so reading k keys costs time proportional to the
+ * height plus k, however many keys come before the start.
+ *
+ * The bulk operations forEachParallel(), reduceValues() and
+ * replaceAllValues() visit every association on several threads,
+ * dividing the tree by subtree.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public interface OrderedMap<K extends Comparable<K>, V> extends Map<K, V> {
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    int size();
+
+    /**
+     * Return the number of keys in this map that are less than
+     * the given key. The key itself need not be in the map.
+     * @param key The key whose rank we're finding
+     * @return The number of keys less than key
+     */
+    int rank(K key);
+
+    /**
+     * Return the key with the given rank, that is, the key that
+     * would be at this index if the keys were in a sorted list.
+     * If the index is invalid, an IndexOutOfBoundsException is thrown.
+     * @param index The rank of the key to return, from 0 to size() - 1
+     * @return The key with that rank
+     */
+    K select(int index);
+
+    /**
+     * Return the number of keys in this map that are at least lo
+     * and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The number of keys in [lo, hi); 0 if hi is not
+     * greater than lo
+     */
+    int countRange(K lo, K hi);
+
+    /**
+     * Return the greatest key in this map that is less than or
+     * equal to the given key.
+     * @param key The key to look below
+     * @return The greatest key not greater than key, null if none exists
+     */
+    K floorKey(K key);
+
+    /**
+     * Return the least key in this map that is greater than or
+     * equal to the given key.
+     * @param key The key to look above
+     * @return The least key not less than key, null if none exists
+     */
+    K ceilingKey(K key);
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least lo and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The iterator
+     */
+    Iterator<K> range(K lo, K hi);
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least the given key.
+     * @param from The key to start from (inclusive)
+     * @return The iterator
+     */
+    Iterator<K> tailIterator(K from);
+
+    /**
+     * Replace the contents of this map with the given associations,
+     * building a balanced tree directly (in time proportional to n)
+     * instead of putting the keys one at a time. The keys must come 
+     * in strictly increasing order, and the values in the same order
+     * as their keys; each value is taken right after its key. (To 
+     * load from a stream, pass stream.iterator().)
+     * If the keys are out of order, an IllegalArgumentException is 
+     * thrown and the map is left as it was.
+     * @param keys The keys, in increasing order
+     * @param values The values, in the order of their keys
+     * @param n The number of associations to take from the iterators
+     */
+    void loadSorted(Iterator<? extends K> keys, Iterator<? extends V> values, int n);
+
+    /**
+     * Replace the contents of this map with the associations in 
+     * these arrays, as loadSorted() does for iterators.
+     * @param keys The keys, in increasing order
+     * @param values The values, in the order of their keys; the 
+     * same length as keys
+     */
+    default void loadSorted(K[] keys, V[] values) {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException(keys.length + " keys but " 
+                    + values.length + " values");
+        loadSorted(Arrays.asList(keys).iterator(), Arrays.asList(values).iterator(), 
+                keys.length);
+    }
+
+    /**
+     * Add all the associations in these arrays to the map, as if
+     * by putting them one at a time in order (so if a key appears 
+     * more than once, its last value wins). The batch is sorted and
+     * merged into the tree in one pass, so keys that land near each
+     * other share the search down to where they go, and each 
+     * subtree the batch touches is rebalanced once.
+     * @param keys The keys, in any order
+     * @param values The values, in the order of their keys; the 
+     * same length as keys
+     */
+    void putAll(K[] keys, V[] values);
+
+    /**
+     * Apply the action to every association in the map, in no
+     * particular order, on several threads at once (so the action
+     * must be safe to call from several threads). The map must not
+     * be changed while this runs.
+     * @param action What to do with each key and its value
+     */
+    void forEachParallel(BiConsumer<? super K, ? super V> action);
+
+    /**
+     * Combine all the values in the map with op, on several threads
+     * at once. The values are combined in the order of their keys,
+     * but in no particular grouping, so op should be associative,
+     * and identity should be an identity for it.
+     * @param identity The result for an empty map
+     * @param op How to combine two values
+     * @return The combination of all the values
+     */
+    V reduceValues(V identity, BinaryOperator<V> op);
+
+    /**
+     * Replace the value of every association in the map with the
+     * result of fn applied to its key and value, on several threads
+     * at once, in one pass over the tree (no searches). 
+     * @param fn Computes the new value for each key and old value
+     */
+    void replaceAllValues(BiFunction<? super K, ? super V, ? extends V> fn);
+
+    /**
+     * Make an immutable copy of this map for lookups only. The copy
+     * keeps its keys in one array in an order that makes searches
+     * touch fewer cache lines than searching the tree does, so a map
+     * that is built once and then only read is worth freezing. Later
+     * changes to this map don't show in the copy.
+     * @return The frozen copy, whose put() and remove() throw
+     * UnsupportedOperationException
+     */
+    Map<K, V> freeze();
+
+}
@@ -21,7 +21,6 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
      */
     public AVLTreeMap() {
         root = null;
-        searchTrace = null;
     }
 
     
@@ -30,18 +29,25 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
      * PRECONDITIONS: put() has just been called and searchTrace contains
      * a stack indicating the route we took from the root to the 
      * "prospective parent" (it does not include the new node itself,
-     * if a new node was added).
+     * if a new node was added). Or, remove() has just been called and
+     * searchTrace contains the route from the root to the parent of
+     * the node that was spliced out.
+     * Every node that moves in a rotation is recomputed on the spot,
+     * so heights and sizes are right all the way up, not just on the
+     * nodes that happen to be on the trace.
      */
     protected void fixup() {
     	
     	Node current = null;
     	Node previous = null;
     	Node replacement = null;
+    	int visited = 0;
     	
     	while (!searchTrace.isEmpty()){
     		// pop a new current off the stack and update previous:
     		previous = current;
     		current = searchTrace.pop();
+    		visited++;
 
     		// replace current's previous child with replacement (if any exists):
     		if (previous != null && current.left != null && current.left.equals(previous)){
@@ -70,6 +76,9 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
 
     			// check if current.left's balance is to left or right:
     			current.left.softRecompute();
+    			if (metrics != null)
+    				metrics.rotation(current.left.balance < 0 ? 
+    						TreeMetrics.Rotation.LEFT_RIGHT : TreeMetrics.Rotation.RIGHT);
     			if (current.left.balance < 0){
     				// it's a left-right imbalance
     				Node temp = current.left;
@@ -78,6 +87,8 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
     				current.left = current.left.right;
     				current.left.left = temp;
     				current.left.left.right = temp2;
+    				temp.softRecompute();
+    				current.left.softRecompute();
 
     			}
 
@@ -85,6 +96,8 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
     			replacement = current.left;
     			current.left = replacement.right;
     			replacement.right = current;
+    			current.softRecompute();
+    			replacement.softRecompute();
     			
 
     			if (current.equals(root)){
@@ -97,6 +110,9 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
 
     			// check if current.right's balance is to left or right:
     			current.right.softRecompute();
+    			if (metrics != null)
+    				metrics.rotation(current.right.balance > 0 ? 
+    						TreeMetrics.Rotation.RIGHT_LEFT : TreeMetrics.Rotation.LEFT);
     			if (current.right.balance > 0){
     				// it's a right-left imbalance
     				Node temp = current.right;
@@ -105,6 +121,8 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
     				current.right = current.right.left;
     				current.right.right = temp;
     				current.right.right.left = temp2;
+    				temp.softRecompute();
+    				current.right.softRecompute();
 
     			}
 
@@ -112,6 +130,8 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
     			replacement = current.right;
     			current.right = replacement.left;
     			replacement.left = current;
+    			current.softRecompute();
+    			replacement.softRecompute();
 
 
     			if (current.equals(root)){
@@ -124,6 +144,8 @@ public class AVLTreeMap<K extends Comparable<K>, V> extends AVLTreeMapAbs<K, V>{
     		}
     	current.softRecompute();
     	} 
+    	if (metrics != null)
+    		metrics.visit(visited, 0);
     	return;
     }
     
@@ -1,25 +1,33 @@
 package impl;
 
 
+import java.util.AbstractMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import adt.Map;
+import adt.OrderedMap;
 import adt.Stack;
 
 /**
  * AVLTreeMapAbs
  * 
  * This contains all the code for an AVL-Tree implementation of
- * a reduced-form Map (no removes) except for the code for
- * fixing it up, which is deferred to an abstract class.
+ * a Map except for the code for fixing it up, which is deferred 
+ * to an abstract class.
  * 
  * @author Thomas VanDrunen
  * CSCI 345, Wheaton College
  * @param <K> The key-type of the map
  * @param <V>The value-type of the map
  */
-public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K, V> {
+public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements OrderedMap<K, V>, BoundedSearch<K, V> {
 
     /**
      * To be thrown if a violation of the "AVL" condition is detected, that is,
@@ -126,16 +134,63 @@ public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K
 
     /**
      * A trace of the route we took on the most recent search through
-     * the tree, to be used for fixing up.
+     * the tree, to be used for fixing up. Only searches made on behalf
+     * of put() and remove() record a trace, and the same stack is
+     * reused for every one of them.
      */
-    protected Stack<Node> searchTrace;
+    protected final ArrayStack<Node> searchTrace = new ArrayStack<Node>();
 
+    /**
+     * Where to count this tree's work, null if it isn't counted
+     */
+    protected TreeMetrics metrics;
+
+    /**
+     * Start (or, given null, stop) counting this tree's work.
+     * @param metrics Where to count it
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     /**
-     * Fixup this tree....
+     * @return Where this tree's work is counted, null if it isn't
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Fixup this tree, after either put() or remove(), using the
+     * route recorded in searchTrace....
      */
     protected abstract void fixup();
     
+    /**
+     * Find the node containing this key, if any. Unlike
+     * findNodeOrProspectiveParent(), this records no trace,
+     * so lookups that don't modify the tree allocate nothing.
+     * @return The node with this key, or null if there is none.
+     */
+    private Node findNode(K key) {
+        Node current = root;
+        int visited = 0;
+        while (current != null) {
+            visited++;
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0)
+                current = current.right;
+            else // if (compare == 0)
+                break;
+        }
+        if (metrics != null)
+            metrics.search(visited, visited);
+        return current;
+    }
+
     /**
      * Find the place in the tree where this key should
      * go. Specifically, if this key is in the tree, return
@@ -152,8 +207,12 @@ public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K
         Node previous = null,    // the previous node we considered, if any
                 current = root;  // the next node to consider, if any
     
-        searchTrace = new ListStack<Node>();
-        
+        // Reuse the trace, making room for the longest route we
+        // could take before we start, so it never grows mid-search.
+        searchTrace.clear();
+        if (root != null)
+            searchTrace.ensureCapacity(root.height + 1);
+
         // Very complicated invariant needed to prove correctness.
         // Simpler one: 
         //    - previous == null or current == null or previous is the parent of current
@@ -162,9 +221,11 @@ public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K
         // (Interpreting that last one: current is null only if previous
         //  contains the key we're looking for or if we have gone off the
         //  end of the tree (in which case key is not in the tree at all).)
+        int visited = 0;
         while (current != null) {
             searchTrace.push(current);
             previous = current;
+            visited++;
             int compare = key.compareTo(current.key);
             if (compare < 0) 
                 current = current.left;
@@ -174,6 +235,8 @@ public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K
                 current = null;  // terminate loop -- we found what we wanted
             
         }
+        if (metrics != null)
+            metrics.search(visited, visited);
     
         // On exit: 
         // - If the tree were empty, we would have terminated immediately,
@@ -201,44 +264,126 @@ public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K
         // -- prospective comes before key; make right child
         // -- prospective come after key; make left child
         
+        Node added = null;
         if (prospective == null)
-            root = new Node(key, val, null, null);
-        else if (prospective.key.equals(key))
+            root = added = new Node(key, val, null, null);
+        else if (prospective.key.equals(key)) {
+            // only the value changes, so there is nothing to fix up
             prospective.value = val;
+            searchTrace.clear();
+            if (metrics != null)
+                metrics.end(TreeMetrics.Operation.PUT);
+            return;
+        }
         else if (prospective.key.compareTo(key) < 0) {
             assert prospective.right == null;
-            prospective.right = new Node(key, val, null, null);
+            prospective.right = added = new Node(key, val, null, null);
         }
         else { // if (prosepctive.key.compareTo(key) > 0)
             assert prospective.left == null;
-            prospective.left = new Node(key, val, null, null);
+            prospective.left = added = new Node(key, val, null, null);
         }
     
         fixup();
+        nodeAdded(added);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.PUT);
 
         //System.out.println(root);
         
         if (DEBUG) root.verify();
     }
 
+    /**
+     * Remove the association for this key, if any, and fix up the
+     * tree. If the node holding the key has two children, we copy
+     * its in-order successor's association into it and splice out
+     * the successor's node instead. Either way, searchTrace is left
+     * holding the route from the root to the parent of the node
+     * actually spliced out, which is all fixup() needs.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        Node doomed = findNodeOrProspectiveParent(key);
+        if (doomed == null || !doomed.key.equals(key)) {
+            searchTrace.clear();
+            if (metrics != null)
+                metrics.end(TreeMetrics.Operation.REMOVE);
+            return;   // key is not in the tree
+        }
+
+        Node moved = null;
+        if (doomed.left != null && doomed.right != null) {
+            moved = doomed;
+            Node parent = doomed,
+                    successor = doomed.right;
+            int visited = 1;
+            while (successor.left != null) {
+                searchTrace.push(successor);
+                parent = successor;
+                successor = successor.left;
+                visited++;
+            }
+            if (metrics != null)
+                metrics.search(visited, 0);
+            doomed.key = successor.key;
+            doomed.value = successor.value;
+            if (parent == doomed)
+                parent.right = successor.right;
+            else
+                parent.left = successor.right;
+        }
+        else {
+            // doomed has at most one child, which takes its place
+            Node child = doomed.left != null ? doomed.left : doomed.right;
+            searchTrace.pop();   // doomed itself
+            if (searchTrace.isEmpty())
+                root = child;
+            else if (searchTrace.top().left == doomed)
+                searchTrace.top().left = child;
+            else
+                searchTrace.top().right = child;
+        }
+
+        fixup();
+        nodeRemoved(key, moved);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.REMOVE);
+
+        if (DEBUG && root != null) root.verify();
+    }
+
+    /**
+     * Called by put() when it adds a new node, after the tree has
+     * been fixed up. Rotations move nodes but never change which
+     * key a node holds, so a subclass may keep track of the nodes
+     * by their keys; this does nothing.
+     * @param node The new node
+     */
+    protected void nodeAdded(Node node) {
+    }
+
+    /**
+     * Called by remove() when it has removed a key, after the tree
+     * has been fixed up; this does nothing.
+     * @param key The key removed
+     * @param moved If the key's node had two children, that node,
+     * which now holds its successor's key and value (the successor's
+     * own node is gone); otherwise null
+     */
+    protected void nodeRemoved(K key, Node moved) {
+    }
+
     /**
      * Get the value for a key.
      * @param key The key whose value we're retrieving.
      * @return The value associated with this key, null if none exists
      */
     public V get(K key) {
-        Node prospective = findNodeOrProspectiveParent(key);
-        
-        // prospective will return null iff the tree is empty.
-        // If prospective is not null, then check if the key is 
-        // what we're looking for.
-        
-        if (prospective == null)
-            return null;
-        else if (prospective.key.equals(key))
-            return prospective.value;
-        else
-            return null;
+        Node node = findNode(key);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.GET);
+        return node == null ? null : node.value;
     }
 
     /**
@@ -247,44 +392,522 @@ public abstract class AVLTreeMapAbs<K extends Comparable<K>, V> implements Map<K
      * @return true if there is an association for this key, false otherwise
      */
     public boolean containsKey(K key) {
-        Node prospective = findNodeOrProspectiveParent(key);
-        return prospective != null && prospective.key.equals(key);
+        Node node = findNode(key);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.CONTAINS_KEY);
+        return node != null;
+    }
+
+    /**
+     * Look for a key without writing anything, for ConcurrentTreeMap.
+     * @return The key's value, BoundedSearch.NOT_FOUND, or
+     * BoundedSearch.GAVE_UP
+     */
+    public Object search(K key) {
+        Node current = root;
+        for (int limit = sizeOf(current); current != null; limit--) {
+            if (limit < 0)
+                return BoundedSearch.GAVE_UP;
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0)
+                current = current.right;
+            else // if (compare == 0)
+                return current.value;
+        }
+        return BoundedSearch.NOT_FOUND;
+    }
+
+    /**
+     * The size of the subtree rooted at this node, which may be null.
+     */
+    private int sizeOf(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Return the number of keys in this map that are less than
+     * the given key. The key itself need not be in the map.
+     * @param key The key whose rank we're finding
+     * @return The number of keys less than key
+     */
+    public int rank(K key) {
+        int rank = 0;
+        Node current = root;
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0) {
+                // current and everything on its left come before key
+                rank += sizeOf(current.left) + 1;
+                current = current.right;
+            }
+            else // if (compare == 0)
+                return rank + sizeOf(current.left);
+        }
+        return rank;
+    }
+
+    /**
+     * Return the key with the given rank.
+     * If the index is invalid, an IndexOutOfBoundsException is thrown.
+     * @param index The rank of the key to return, from 0 to size() - 1
+     * @return The key with that rank
+     */
+    public K select(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("" + index);
+        Node current = root;
+        while (true) {
+            int leftSize = sizeOf(current.left);
+            if (index < leftSize)
+                current = current.left;
+            else if (index > leftSize) {
+                index -= leftSize + 1;
+                current = current.right;
+            }
+            else // if (index == leftSize)
+                return current.key;
+        }
+    }
+
+    /**
+     * Return the number of keys in this map that are at least lo
+     * and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The number of keys in [lo, hi)
+     */
+    public int countRange(K lo, K hi) {
+        if (hi.compareTo(lo) <= 0)
+            return 0;
+        return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Return the greatest key in this map that is less than or
+     * equal to the given key.
+     * @param key The key to look below
+     * @return The greatest key not greater than key, null if none exists
+     */
+    public K floorKey(K key) {
+        K best = null;   // the greatest key <= key seen so far
+        Node current = root;
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0) {
+                best = current.key;
+                current = current.right;
+            }
+            else // if (compare == 0)
+                return current.key;
+        }
+        return best;
+    }
+
+    /**
+     * Return the least key in this map that is greater than or
+     * equal to the given key.
+     * @param key The key to look above
+     * @return The least key not less than key, null if none exists
+     */
+    public K ceilingKey(K key) {
+        K best = null;   // the least key >= key seen so far
+        Node current = root;
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0) {
+                best = current.key;
+                current = current.left;
+            }
+            else if (compare > 0)
+                current = current.right;
+            else // if (compare == 0)
+                return current.key;
+        }
+        return best;
+    }
+
+    /**
+     * Add all the associations in these arrays to the map, as if
+     * by putting them one at a time in order.
+     * @param keys The keys, in any order
+     * @param values The values, in the order of their keys
+     */
+    public void putAll(K[] keys, V[] values) {
+        SortedBatch<K, V> batch = new SortedBatch<K, V>(keys, values);
+        root = merge(root, batch, 0, batch.length);
+
+        if (DEBUG && root != null) root.verify();
+    }
+
+    /**
+     * Merge the batch's associations at positions [lo, hi) into the
+     * subtree rooted at this node. The batch is split around the
+     * node's key and each part is merged into its own side (a part
+     * that reaches an empty spot becomes a balanced subtree there);
+     * then the two sides are joined back together at this node,
+     * which rebalances this subtree however much either side grew.
+     * @return The root of the merged subtree
+     */
+    private Node merge(Node node, SortedBatch<K, V> batch, int lo, int hi) {
+        if (lo == hi)
+            return node;
+        if (node == null)
+            return build(batch.source(lo, hi), hi - lo);
+
+        int mid = batch.lowerBound(node.key, lo, hi), rightStart = mid;
+        if (mid < hi && batch.key(mid).compareTo(node.key) == 0) {
+            node.value = batch.value(mid);
+            rightStart = mid + 1;
+        }
+        Node left = merge(node.left, batch, lo, mid),
+                right = merge(node.right, batch, rightStart, hi);
+        return join(left, node, right);
+    }
+
+    /**
+     * The height of the subtree rooted at this node, which may be null.
+     */
+    private int heightOf(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node replacement = node.right;
+        node.right = replacement.left;
+        replacement.left = node;
+        node.softRecompute();
+        replacement.softRecompute();
+        return replacement;
+    }
+
+    private Node rotateRight(Node node) {
+        Node replacement = node.left;
+        node.left = replacement.right;
+        replacement.right = node;
+        node.softRecompute();
+        replacement.softRecompute();
+        return replacement;
+    }
+
+    /**
+     * Join two AVL trees into one, with the middle node between them.
+     * PRECONDITION: every key in left is less than middle's key, and
+     * every key in right is greater. The heights of left and right
+     * may differ by any amount; the shorter tree is hung from the 
+     * spine of the taller one at the level where it fits, and the 
+     * spine is rebalanced on the way back up, so this takes time
+     * proportional to the difference in heights.
+     * @return The root of the joined tree
+     */
+    private Node join(Node left, Node middle, Node right) {
+        int leftHeight = heightOf(left), rightHeight = heightOf(right);
+        if (leftHeight > rightHeight + 1)
+            return joinRight(left, middle, right);
+        else if (rightHeight > leftHeight + 1)
+            return joinLeft(left, middle, right);
+        middle.left = left;
+        middle.right = right;
+        middle.softRecompute();
+        return middle;
+    }
+
+    /**
+     * Join, when left is more than one taller than right: go down
+     * the right spine of left to the first subtree no more than one
+     * taller than right, and put middle there.
+     */
+    private Node joinRight(Node left, Node middle, Node right) {
+        Node spine = left.right;
+        if (heightOf(spine) <= heightOf(right) + 1) {
+            middle.left = spine;
+            middle.right = right;
+            middle.softRecompute();
+            if (middle.height <= heightOf(left.left) + 1) {
+                left.right = middle;
+                left.softRecompute();
+                return left;
+            }
+            // too tall by one: a double rotation fixes it
+            left.right = rotateRight(middle);
+            left.softRecompute();
+            return rotateLeft(left);
+        }
+        left.right = joinRight(spine, middle, right);
+        left.softRecompute();
+        return left.balance < -1 ? rotateLeft(left) : left;
+    }
+
+    /**
+     * Join, when right is more than one taller than left.
+     * (The mirror image of joinRight().)
+     */
+    private Node joinLeft(Node left, Node middle, Node right) {
+        Node spine = right.left;
+        if (heightOf(spine) <= heightOf(left) + 1) {
+            middle.left = left;
+            middle.right = spine;
+            middle.softRecompute();
+            if (middle.height <= heightOf(right.right) + 1) {
+                right.left = middle;
+                right.softRecompute();
+                return right;
+            }
+            right.left = rotateLeft(middle);
+            right.softRecompute();
+            return rotateRight(right);
+        }
+        right.left = joinLeft(left, middle, spine);
+        right.softRecompute();
+        return right.balance > 1 ? rotateRight(right) : right;
+    }
+
+    /**
+     * Replace the contents of this map with the given associations,
+     * building a balanced tree directly from the sorted input.
+     * @param keys The keys, in increasing order
+     * @param values The values, in the order of their keys
+     * @param n The number of associations to take from the iterators
+     */
+    public void loadSorted(Iterator<? extends K> keys, Iterator<? extends V> values, int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("" + n);
+        // build the whole tree before replacing anything, in case 
+        // the input turns out to be out of order
+        root = build(new SortedSource<K, V>(keys, values), n);
+
+        if (DEBUG && root != null) root.verify();
+    }
+
+    /**
+     * Build a tree from the next n associations of the source, with
+     * the middle one at the root and each half built the same way
+     * below it. The two halves differ in size by at most one, so 
+     * their heights differ by at most one and the tree is balanced.
+     * Each node's height, size, and balance are computed as it is
+     * made, from its finished children.
+     * @return The root of the new tree, null if n is 0
+     */
+    private Node build(SortedSource<K, V> source, int n) {
+        if (n == 0)
+            return null;
+        int leftCount = (n - 1) / 2;
+        Node left = build(source, leftCount);
+        K key = source.nextKey();
+        V value = source.nextValue();
+        Node right = build(source, n - 1 - leftCount);
+        return new Node(key, value, left, right);
     }
 
     /**
      * Iterator that returns the keys in sorted order.
+     * This performs an in-order depth-first traversal.
      * @return The iterator 
      */
     public Iterator<K> iterator() {
-    
-        // The stack contains the left-link lineage of the 
-        // the next node, including the next node itself;
-        // the next node is the top element
-        final Stack<Node> st = new ListStack<Node>();
-        for (Node current = root; current != null; current = current.left)
-            st.push(current);
-    
-        return new Iterator<K>() {
-            public boolean hasNext() {
-                return ! st.isEmpty();
-            }
-    
-            public K next() {
-                if (st.isEmpty())
-                    throw new NoSuchElementException();
-                else {
-                    Node nextNode = st.pop();
-                    for (Node current = nextNode.right; current != null; current = current.left)
-                        st.push(current);
-                    return nextNode.key;
+        return new RangeIterator(null, null);
+    }
+
+    /**
+     * How the spliterators and bulk operations get around this
+     * tree's nodes
+     */
+    private final TreeTasks.Access<Node, K, V> shape = new TreeTasks.Access<Node, K, V>() {
+        public Node left(Node node) {
+            return node.left;
+        }
+
+        public Node right(Node node) {
+            return node.right;
+        }
+
+        public int size(Node node) {
+            return sizeOf(node);
+        }
+
+        public K key(Node node) {
+            return node.key;
+        }
+
+        public V value(Node node) {
+            return node.value;
+        }
+
+        public void setValue(Node node, V value) {
+            node.value = value;
+        }
+    };
+
+    /**
+     * Spliterator over the keys in sorted order, which splits by
+     * subtree, so that keys().parallel() can divide the tree among
+     * threads.
+     * @return The spliterator
+     */
+    public Spliterator<K> spliterator() {
+        return new TreeSpliterator<Node, K>(shape, root, node -> node.key, null);
+    }
+
+    /**
+     * A stream of the associations in order of their keys, which,
+     * unlike the default, reads each value from its node and can be
+     * split by subtree for parallel streams.
+     * @return The stream
+     */
+    public Stream<java.util.Map.Entry<K, V>> entries() {
+        Spliterator<java.util.Map.Entry<K, V>> entries = 
+                new TreeSpliterator<Node, java.util.Map.Entry<K, V>>(shape, root,
+                        node -> new AbstractMap.SimpleImmutableEntry<K, V>(node.key, node.value),
+                        java.util.Map.Entry.<K, V>comparingByKey());
+        return StreamSupport.stream(entries, false);
+    }
+
+    /**
+     * Apply the action to every association, on several threads.
+     * @param action What to do with each key and its value
+     */
+    public void forEachParallel(BiConsumer<? super K, ? super V> action) {
+        TreeTasks.forEach(shape, root, action);
+    }
+
+    /**
+     * Combine all the values, in key order, on several threads.
+     * @param identity The result for an empty map
+     * @param op How to combine two values
+     * @return The combination of all the values
+     */
+    public V reduceValues(V identity, BinaryOperator<V> op) {
+        return TreeTasks.reduceValues(shape, root, identity, op);
+    }
+
+    /**
+     * Replace every value in place, on several threads.
+     * The shape of the tree doesn't change.
+     * @param fn Computes the new value for each key and old value
+     */
+    public void replaceAllValues(BiFunction<? super K, ? super V, ? extends V> fn) {
+        TreeTasks.replaceAll(shape, root, fn);
+    }
+
+    /**
+     * An immutable copy of this map laid out for fast searching.
+     * @return The frozen map
+     */
+    public EytzingerMap<K, V> freeze() {
+        return new EytzingerMap<K, V>(entries().iterator(), size());
+    }
+
+    /**
+     * Report on the shape of this tree, including its nodes' balance
+     * factors, visiting every node.
+     * @return The report
+     */
+    public ShapeStats shapeStats() {
+        return ShapeStats.measure(shape, root, node -> node.balance, ShapeStats.NONE);
+    }
+
+    /**
+     * Report on the shape of this tree from the depths of randomly
+     * chosen keys, which takes time proportional to samples times
+     * the depth of the tree rather than to its size.
+     * @param samples The number of keys to choose
+     * @param random Where to get the random choices
+     * @return The report
+     */
+    public ShapeStats shapeStats(int samples, Random random) {
+        return ShapeStats.sample(shape, root, samples, random, node -> node.balance, ShapeStats.NONE);
+    }
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least lo and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The iterator
+     */
+    public Iterator<K> range(K lo, K hi) {
+        return new RangeIterator(lo, hi);
+    }
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least the given key.
+     * @param from The key to start from (inclusive)
+     * @return The iterator
+     */
+    public Iterator<K> tailIterator(K from) {
+        return new RangeIterator(from, null);
+    }
+
+    /**
+     * An in-order depth-first traversal of the keys from lo 
+     * (inclusive) up to hi (exclusive), where a null bound means
+     * there is no bound on that side.
+     */
+    private class RangeIterator implements Iterator<K> {
+
+        /**
+         * The stack contains the nodes on the route from the root 
+         * to the next node where we went left (that is, the nodes
+         * still to be visited, each followed by its right subtree),
+         * including the next node itself; the next node is the top
+         * element. So it never holds more than the height of the tree.
+         */
+        private final Stack<Node> st = new ArrayStack<Node>();
+
+        /**
+         * The key to stop before, if any
+         */
+        private final K hi;
+
+        RangeIterator(K lo, K hi) {
+            this.hi = hi;
+            // Search for lo, pushing only the nodes we go left from 
+            // (the ones whose keys are at least lo).
+            Node current = root;
+            while (current != null) {
+                if (lo == null || lo.compareTo(current.key) <= 0) {
+                    st.push(current);
+                    current = current.left;
                 }
+                else
+                    current = current.right;
             }
-    
-            public void remove() {
-                throw new UnsupportedOperationException();
+        }
+
+        public boolean hasNext() {
+            return ! st.isEmpty() && 
+                    (hi == null || st.top().key.compareTo(hi) < 0);
+        }
+
+        public K next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            else {
+                Node nextNode = st.pop();
+                for (Node current = nextNode.right; current != null; 
+                        current = current.left)
+                    st.push(current);
+                return nextNode.key;
             }
-            
-        };
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
 }
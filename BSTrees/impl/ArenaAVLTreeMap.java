@@ -0,0 +1,457 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adt.Map;
+
+/**
+ * ArenaAVLTreeMap
+ *
+ * An AVL tree with no node objects. A node is an int index, and
+ * its key, value, children, and height are found at that index in
+ * parallel arrays (the "arena"). Children are linked by index, with
+ * NIL standing for a missing child. The arrays are split into
+ * fixed-size chunks, so growing the arena allocates one new chunk
+ * per array and never copies what is already there.
+ *
+ * Compared with AVLTreeMap, a tree of n entries costs a handful of
+ * large arrays instead of n objects, each with its own header and
+ * a reference to its enclosing map. Nodes made together sit next to
+ * each other in memory.
+ *
+ * Removed nodes are put on a free list (chained through their left
+ * links) and reused by later puts, so the arena never grows beyond
+ * the largest number of entries the map has held at once.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class ArenaAVLTreeMap<K extends Comparable<K>, V> implements Map<K, V>, BoundedSearch<K, V> {
+
+    /**
+     * The index that stands for "no node"
+     */
+    private static final int NIL = -1;
+
+    /**
+     * Each chunk holds 2^CHUNK_BITS nodes
+     */
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // The arena. Node i lives at [i >>> CHUNK_BITS][i & CHUNK_MASK]
+    // of each of these.
+    private Object[][] keys;
+    private Object[][] values;
+    private int[][] lefts;
+    private int[][] rights;
+
+    /**
+     * The height of the subtree rooted at each node. An AVL tree of
+     * any size we could allocate is less than 128 high, so a byte
+     * will do.
+     */
+    private byte[][] heights;
+
+    /**
+     * The number of nodes allocated so far; also the index of
+     * the next node to be allocated.
+     */
+    private int count;
+
+    /**
+     * The first node on the free list, or NIL if no removed nodes 
+     * are waiting to be reused
+     */
+    private int free;
+
+    /**
+     * The root of this tree
+     */
+    private int root;
+
+    /**
+     * The route taken by the most recent put(), reused from one
+     * put() to the next.
+     */
+    private int[] path;
+
+    /**
+     * Gratuitous, perfunctory constructor.
+     */
+    public ArenaAVLTreeMap() {
+        keys = new Object[1][];
+        values = new Object[1][];
+        lefts = new int[1][];
+        rights = new int[1][];
+        heights = new byte[1][];
+        count = 0;
+        free = NIL;
+        root = NIL;
+        path = new int[64];
+    }
+
+    // -------- arena access --------
+
+    @SuppressWarnings("unchecked")
+    private K key(int node) {
+        return (K) keys[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int node) {
+        return (V) values[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    private void setValue(int node, V value) {
+        values[node >>> CHUNK_BITS][node & CHUNK_MASK] = value;
+    }
+
+    private int left(int node) {
+        return lefts[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    private void setLeft(int node, int child) {
+        lefts[node >>> CHUNK_BITS][node & CHUNK_MASK] = child;
+    }
+
+    private int right(int node) {
+        return rights[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    private void setRight(int node, int child) {
+        rights[node >>> CHUNK_BITS][node & CHUNK_MASK] = child;
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : heights[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    /**
+     * Allocate a new leaf node for this association, reusing a 
+     * removed node if there is one, and otherwise adding a chunk
+     * to the arena if the current ones are full.
+     * @return The index of the new node
+     */
+    private int allocate(K key, V val) {
+        if (free != NIL) {
+            int node = free;
+            free = left(node);
+            keys[node >>> CHUNK_BITS][node & CHUNK_MASK] = key;
+            setValue(node, val);
+            setLeft(node, NIL);
+            setRight(node, NIL);
+            heights[node >>> CHUNK_BITS][node & CHUNK_MASK] = 1;
+            return node;
+        }
+        int chunk = count >>> CHUNK_BITS;
+        if (chunk == keys.length) {
+            // out of room in the chunk directory; double it
+            keys = Arrays.copyOf(keys, chunk * 2);
+            values = Arrays.copyOf(values, chunk * 2);
+            lefts = Arrays.copyOf(lefts, chunk * 2);
+            rights = Arrays.copyOf(rights, chunk * 2);
+            heights = Arrays.copyOf(heights, chunk * 2);
+        }
+        if (keys[chunk] == null) {
+            keys[chunk] = new Object[CHUNK_SIZE];
+            values[chunk] = new Object[CHUNK_SIZE];
+            lefts[chunk] = new int[CHUNK_SIZE];
+            rights[chunk] = new int[CHUNK_SIZE];
+            heights[chunk] = new byte[CHUNK_SIZE];
+        }
+        int node = count++, slot = node & CHUNK_MASK;
+        keys[chunk][slot] = key;
+        values[chunk][slot] = val;
+        lefts[chunk][slot] = NIL;
+        rights[chunk][slot] = NIL;
+        heights[chunk][slot] = 1;
+        return node;
+    }
+
+    /**
+     * Put a node that is no longer in the tree on the free list,
+     * dropping its key and value.
+     */
+    private void release(int node) {
+        keys[node >>> CHUNK_BITS][node & CHUNK_MASK] = null;
+        setValue(node, null);
+        setLeft(node, free);
+        free = node;
+    }
+
+    // -------- balancing --------
+
+    private void recompute(int node) {
+        int leftHeight = height(left(node)), rightHeight = height(right(node));
+        heights[node >>> CHUNK_BITS][node & CHUNK_MASK] =
+                (byte) ((leftHeight > rightHeight ? leftHeight : rightHeight) + 1);
+    }
+
+    private int rotateRight(int node) {
+        int replacement = left(node);
+        setLeft(node, right(replacement));
+        setRight(replacement, node);
+        recompute(node);
+        recompute(replacement);
+        return replacement;
+    }
+
+    private int rotateLeft(int node) {
+        int replacement = right(node);
+        setRight(node, left(replacement));
+        setLeft(replacement, node);
+        recompute(node);
+        recompute(replacement);
+        return replacement;
+    }
+
+    /**
+     * Recompute the height at this node and, if it is out of
+     * balance, rotate it back into balance.
+     * @return The node that should take this node's place
+     */
+    private int rebalance(int node) {
+        recompute(node);
+        int left = left(node), right = right(node);
+        int balance = height(left) - height(right);
+        if (balance > 1) {
+            if (height(left(left)) < height(right(left)))
+                setLeft(node, rotateLeft(left));    // left-right case
+            return rotateRight(node);
+        }
+        else if (balance < -1) {
+            if (height(right(right)) < height(left(right)))
+                setRight(node, rotateRight(right)); // right-left case
+            return rotateLeft(node);
+        }
+        else
+            return node;
+    }
+
+    // -------- map operations --------
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        if (root == NIL) {
+            root = allocate(key, val);
+            return;
+        }
+        if (path.length < height(root) + 1)
+            path = Arrays.copyOf(path, height(root) * 2);
+
+        // Go down, recording the route, until we either find the key
+        // or hang a new leaf off the bottom of the tree.
+        int depth = 0;
+        int current = root;
+        while (true) {
+            path[depth++] = current;
+            int compare = key.compareTo(key(current));
+            if (compare < 0) {
+                int next = left(current);
+                if (next == NIL) {
+                    setLeft(current, allocate(key, val));
+                    break;
+                }
+                current = next;
+            }
+            else if (compare > 0) {
+                int next = right(current);
+                if (next == NIL) {
+                    setRight(current, allocate(key, val));
+                    break;
+                }
+                current = next;
+            }
+            else { // if (compare == 0)
+                setValue(current, val);
+                return;
+            }
+        }
+
+        // Come back up, rebalancing. Once a subtree comes out the
+        // same height it went in, nothing above it can have changed.
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int oldHeight = height(node);
+            int replacement = rebalance(node);
+            if (i == 0)
+                root = replacement;
+            else if (left(path[i - 1]) == node)
+                setLeft(path[i - 1], replacement);
+            else
+                setRight(path[i - 1], replacement);
+            if (replacement == node && height(node) == oldHeight)
+                break;
+        }
+    }
+
+    /**
+     * Remove the association for this key, if any. As in
+     * AVLTreeMap, a node with two children takes its in-order 
+     * successor's association and the successor's node is spliced
+     * out instead; then the route back up is rebalanced.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        if (root == NIL)
+            return;
+        if (path.length < height(root) + 1)
+            path = Arrays.copyOf(path, height(root) * 2);
+
+        int depth = 0;
+        int current = root;
+        while (current != NIL) {
+            int compare = key.compareTo(key(current));
+            if (compare == 0)
+                break;
+            path[depth++] = current;
+            current = compare < 0 ? left(current) : right(current);
+        }
+        if (current == NIL)
+            return;   // key is not in the tree
+
+        if (left(current) != NIL && right(current) != NIL) {
+            int doomed = current;
+            path[depth++] = doomed;
+            current = right(doomed);
+            while (left(current) != NIL) {
+                path[depth++] = current;
+                current = left(current);
+            }
+            keys[doomed >>> CHUNK_BITS][doomed & CHUNK_MASK] = key(current);
+            setValue(doomed, value(current));
+        }
+
+        // current has at most one child, which takes its place
+        int child = left(current) != NIL ? left(current) : right(current);
+        if (depth == 0)
+            root = child;
+        else if (left(path[depth - 1]) == current)
+            setLeft(path[depth - 1], child);
+        else
+            setRight(path[depth - 1], child);
+        release(current);
+
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int oldHeight = height(node);
+            int replacement = rebalance(node);
+            if (i == 0)
+                root = replacement;
+            else if (left(path[i - 1]) == node)
+                setLeft(path[i - 1], replacement);
+            else
+                setRight(path[i - 1], replacement);
+            if (replacement == node && height(node) == oldHeight)
+                break;
+        }
+    }
+
+    /**
+     * Find the node containing this key, if any.
+     * @return The index of the node with this key, or NIL if there
+     * is none.
+     */
+    private int findNode(K key) {
+        int current = root;
+        while (current != NIL) {
+            int compare = key.compareTo(key(current));
+            if (compare < 0)
+                current = left(current);
+            else if (compare > 0)
+                current = right(current);
+            else
+                return current;
+        }
+        return NIL;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        int node = findNode(key);
+        return node == NIL ? null : value(node);
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        return findNode(key) != NIL;
+    }
+
+    /**
+     * Look for a key without writing anything, for ConcurrentTreeMap.
+     * @return The key's value, BoundedSearch.NOT_FOUND, or
+     * BoundedSearch.GAVE_UP
+     */
+    public Object search(K key) {
+        int current = root;
+        for (int limit = count; current != NIL; limit--) {
+            if (limit < 0)
+                return BoundedSearch.GAVE_UP;
+            int compare = key.compareTo(key(current));
+            if (compare < 0)
+                current = left(current);
+            else if (compare > 0)
+                current = right(current);
+            else // if (compare == 0)
+                return value(current);
+        }
+        return BoundedSearch.NOT_FOUND;
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order.
+     * The stack of nodes is a plain int array as deep as the tree.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            // The stack contains the left-link lineage of the
+            // the next node, including the next node itself;
+            // the next node is the top element
+            int[] st = new int[height(root) + 1];
+            int top = 0;
+            {
+                pushLeftLineage(root);
+            }
+
+            private void pushLeftLineage(int node) {
+                for (int current = node; current != NIL; current = left(current))
+                    st[top++] = current;
+            }
+
+            public boolean hasNext() {
+                return top > 0;
+            }
+
+            public K next() {
+                if (top == 0)
+                    throw new NoSuchElementException();
+                int nextNode = st[--top];
+                pushLeftLineage(right(nextNode));
+                return key(nextNode);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
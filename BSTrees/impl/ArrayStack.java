@@ -0,0 +1,122 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import adt.Stack;
+
+/**
+ * ArrayStack
+ *
+ * An implementation of a stack using a growable array. Unlike
+ * ListStack, every operation touches only the top slot of the
+ * array, so push(), pop(), and top() are (amortized) constant time
+ * and no node is allocated per element. This is the stack the
+ * tree iterators use, since their stacks get as deep as the tree.
+ *
+ * @param <E> The base-type of the stack
+ */
+
+public class ArrayStack<E> implements Stack<E> {
+
+    /**
+     * The capacity to start with if none is specified
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The elements of the stack, bottom at index 0
+     */
+    private E[] internal;
+
+    /**
+     * The number of elements in the stack; also the index
+     * of the next free slot
+     */
+    private int size;
+
+    public ArrayStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for a stack that can hold the given number
+     * of elements before it needs to grow.
+     * @param capacity The initial capacity
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayStack(int capacity) {
+        internal = (E[]) new Object[capacity < 1 ? 1 : capacity];
+        size = 0;
+    }
+
+    /**
+     * Add (push) an item to the top of the stack.
+     * @param item The item to push
+     */
+    public void push(E item) {
+        if (size == internal.length)
+            internal = Arrays.copyOf(internal, internal.length * 2);
+        internal[size++] = item;
+    }
+
+    /**
+     * Return but do not remove the top item, ie the
+     * item most recently pushed of all the items still in
+     * the stack.
+     * @return The top item in the stack
+     * @throws NoSuchSuchElementException if the stack is empty.
+     */
+    public E top() {
+        if (size > 0)
+            return internal[size - 1];
+        else
+            throw new NoSuchElementException();
+    }
+
+    /**
+     * Return and remove the top item, ie the
+     * item most recently pushed of all the items still in
+     * the stack.
+     * @return The top item in the stack
+     * @throws NoSuchSuchElementException if the stack is empty.
+     */
+    public E pop() {
+        if (size > 0) {
+            E item = internal[--size];
+            internal[size] = null;  // don't hold on to popped items
+            return item;
+        }
+        else
+            throw new NoSuchElementException();
+    }
+
+    /**
+     * Make sure the stack can hold the given number of elements
+     * without growing again.
+     * @param capacity The number of elements to make room for
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > internal.length)
+            internal = Arrays.copyOf(internal, 
+                    Math.max(capacity, internal.length * 2));
+    }
+
+    /**
+     * Remove all the items from the stack, keeping the storage
+     * for reuse.
+     */
+    public void clear() {
+        Arrays.fill(internal, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Is the stack empty?
+     * @return true if the stack is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+}
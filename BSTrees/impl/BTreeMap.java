@@ -0,0 +1,438 @@
+package impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adt.Map;
+
+/**
+ * BTreeMap
+ *
+ * An implementation of a map as an in-memory B-tree. Each node holds
+ * a sorted array of many keys (with their values) and, unless it is
+ * a leaf, one more child than keys. A search does a binary search
+ * within each node it visits, so it follows about log(n)/log(order)
+ * links instead of the binary trees' log2(n), and the keys it
+ * compares in one node sit together in one array, which costs far
+ * fewer cache misses than visiting a separate node object per
+ * comparison.
+ *
+ * The order (the most children a node can have) is set when the map
+ * is made; it is rounded down to an even number, at least 4. Every
+ * node but the root has at least half that many children. Puts split
+ * full nodes on the way down, and removes top up nodes that are at
+ * the minimum (borrowing from a sibling or merging with one) on the
+ * way down, so neither ever has to come back up the tree.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class BTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
+
+    public static final int DEFAULT_ORDER = 32;
+
+    private class Node {
+        final K[] keys;
+        final V[] values;
+
+        /**
+         * The children, null if this is a leaf
+         */
+        final Node[] children;
+
+        /**
+         * The number of keys in this node
+         */
+        int count;
+
+        @SuppressWarnings("unchecked")
+        Node(boolean leaf) {
+            keys = (K[]) new Comparable<?>[maxKeys];
+            values = (V[]) new Object[maxKeys];
+            children = leaf ? null : (Node[]) new BTreeMap<?, ?>.Node[maxKeys + 1];
+            count = 0;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        /**
+         * The index of key in this node if it is here, or else
+         * -(the index of the child it would be under) - 1.
+         */
+        int search(K key) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int compareResult = keys[mid].compareTo(key);
+                if (compareResult < 0)
+                    lo = mid + 1;
+                else if (compareResult > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -(lo + 1);
+        }
+
+        /**
+         * Put a key and value at index, moving the ones after it over.
+         */
+        void insertAt(int index, K key, V value) {
+            System.arraycopy(keys, index, keys, index + 1, count - index);
+            System.arraycopy(values, index, values, index + 1, count - index);
+            keys[index] = key;
+            values[index] = value;
+            count++;
+        }
+
+        /**
+         * Take out the key and value at index (and the child after
+         * it, if this isn't a leaf), moving the ones after it back.
+         */
+        void removeAt(int index) {
+            if (children != null) {
+                System.arraycopy(children, index + 2, children, index + 1, count - index - 1);
+                children[count] = null;
+            }
+            removeKeyAt(index);
+        }
+
+        /**
+         * Take out the key and value at index, leaving the children
+         * as they are.
+         */
+        void removeKeyAt(int index) {
+            System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            count--;
+            keys[count] = null;
+            values[count] = null;
+        }
+    }
+
+    /**
+     * The fewest keys a node other than the root may have; nodes
+     * have at most 2 * minKeys + 1.
+     */
+    private final int minKeys, maxKeys;
+
+    private Node root;
+
+    private int size;
+
+    /**
+     * Constructor for a B-tree of the default order.
+     */
+    public BTreeMap() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * Constructor for a B-tree of a given order.
+     * @param order The most children a node may have; rounded down
+     * to an even number, at least 4
+     */
+    public BTreeMap(int order) {
+        int half = Math.max(order / 2, 2);
+        minKeys = half - 1;
+        maxKeys = 2 * half - 1;
+        root = new Node(true);
+        size = 0;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        Node current = root;
+        while (true) {
+            int index = current.search(key);
+            if (index >= 0)
+                return current.values[index];
+            else if (current.isLeaf())
+                return null;
+            else
+                current = current.children[-index - 1];
+        }
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        Node current = root;
+        while (true) {
+            int index = current.search(key);
+            if (index >= 0)
+                return true;
+            else if (current.isLeaf())
+                return false;
+            else
+                current = current.children[-index - 1];
+        }
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        if (root.count == maxKeys) {
+            Node oldRoot = root;
+            root = new Node(false);
+            root.children[0] = oldRoot;
+            splitChild(root, 0);
+        }
+        Node current = root;
+        while (true) {
+            int index = current.search(key);
+            if (index >= 0) {
+                current.values[index] = val;
+                return;
+            }
+            index = -index - 1;
+            if (current.isLeaf()) {
+                current.insertAt(index, key, val);
+                size++;
+                return;
+            }
+            if (current.children[index].count == maxKeys) {
+                splitChild(current, index);
+                // The middle key came up to index; see which side
+                // of it the key goes.
+                int compareResult = key.compareTo(current.keys[index]);
+                if (compareResult == 0) {
+                    current.values[index] = val;
+                    return;
+                }
+                else if (compareResult > 0)
+                    index++;
+            }
+            current = current.children[index];
+        }
+    }
+
+    /**
+     * Split the full child at index of parent (which is not full)
+     * in two, moving its middle key up into parent.
+     */
+    private void splitChild(Node parent, int index) {
+        Node full = parent.children[index];
+        Node right = new Node(full.isLeaf());
+        int moved = maxKeys - minKeys - 1;   // keys after the middle one
+        System.arraycopy(full.keys, minKeys + 1, right.keys, 0, moved);
+        System.arraycopy(full.values, minKeys + 1, right.values, 0, moved);
+        if (! full.isLeaf())
+            System.arraycopy(full.children, minKeys + 1, right.children, 0, moved + 1);
+        right.count = moved;
+
+        parent.insertAt(index, full.keys[minKeys], full.values[minKeys]);
+        System.arraycopy(parent.children, index + 1, parent.children, index + 2,
+                parent.count - index - 1);
+        parent.children[index + 1] = right;
+
+        for (int i = minKeys; i < maxKeys; i++) {
+            full.keys[i] = null;
+            full.values[i] = null;
+            if (! full.isLeaf())
+                full.children[i + 1] = null;
+        }
+        full.count = minKeys;
+    }
+
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        if (! containsKey(key))
+            return;
+        Node current = root;
+        while (true) {
+            int index = current.search(key);
+            if (index >= 0 && current.isLeaf()) {
+                current.removeAt(index);
+                break;
+            }
+            else if (index >= 0) {
+                Node left = current.children[index], right = current.children[index + 1];
+                if (left.count > minKeys) {
+                    // Replace the key with its predecessor and go on
+                    // to remove that from the left subtree.
+                    Node pred = left;
+                    while (! pred.isLeaf())
+                        pred = pred.children[pred.count];
+                    key = pred.keys[pred.count - 1];
+                    current.keys[index] = key;
+                    current.values[index] = pred.values[pred.count - 1];
+                    current = left;
+                }
+                else if (right.count > minKeys) {
+                    Node succ = right;
+                    while (! succ.isLeaf())
+                        succ = succ.children[0];
+                    key = succ.keys[0];
+                    current.keys[index] = key;
+                    current.values[index] = succ.values[0];
+                    current = right;
+                }
+                else {
+                    merge(current, index);
+                    current = left;
+                }
+            }
+            else {
+                index = -index - 1;
+                current = current.children[fill(current, index)];
+            }
+        }
+        size--;
+        if (root.count == 0 && ! root.isLeaf())
+            root = root.children[0];
+    }
+
+    /**
+     * Make sure the child at index of parent has more than the
+     * minimum number of keys, so that one can be removed from it,
+     * by borrowing a key from a sibling or else merging with one.
+     * @return The index of the child now holding that child's keys
+     */
+    private int fill(Node parent, int index) {
+        Node child = parent.children[index];
+        if (child.count > minKeys)
+            return index;
+        if (index > 0 && parent.children[index - 1].count > minKeys) {
+            // Rotate a key from the left sibling through the parent.
+            Node left = parent.children[index - 1];
+            child.insertAt(0, parent.keys[index - 1], parent.values[index - 1]);
+            if (! child.isLeaf()) {
+                System.arraycopy(child.children, 0, child.children, 1, child.count);
+                child.children[0] = left.children[left.count];
+            }
+            parent.keys[index - 1] = left.keys[left.count - 1];
+            parent.values[index - 1] = left.values[left.count - 1];
+            if (! left.isLeaf())
+                left.children[left.count] = null;
+            left.count--;
+            left.keys[left.count] = null;
+            left.values[left.count] = null;
+            return index;
+        }
+        else if (index < parent.count && parent.children[index + 1].count > minKeys) {
+            // Rotate a key from the right sibling through the parent.
+            Node right = parent.children[index + 1];
+            child.insertAt(child.count, parent.keys[index], parent.values[index]);
+            if (! child.isLeaf())
+                child.children[child.count] = right.children[0];
+            parent.keys[index] = right.keys[0];
+            parent.values[index] = right.values[0];
+            if (! right.isLeaf()) {
+                System.arraycopy(right.children, 1, right.children, 0, right.count);
+                right.children[right.count] = null;
+            }
+            right.removeKeyAt(0);
+            return index;
+        }
+        else if (index < parent.count) {
+            merge(parent, index);
+            return index;
+        }
+        else {
+            merge(parent, index - 1);
+            return index - 1;
+        }
+    }
+
+    /**
+     * Merge the children at index and index + 1 of parent, with the
+     * key between them, into the one at index. Both children have
+     * the minimum number of keys, so the result is full.
+     */
+    private void merge(Node parent, int index) {
+        Node left = parent.children[index], right = parent.children[index + 1];
+        left.keys[left.count] = parent.keys[index];
+        left.values[left.count] = parent.values[index];
+        System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+        System.arraycopy(right.values, 0, left.values, left.count + 1, right.count);
+        if (! left.isLeaf())
+            System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+        left.count += right.count + 1;
+        parent.removeAt(index);
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            /**
+             * The nodes from the root down to the one with the next
+             * key, and in each the index of the next key to return
+             * (or, for a node not at the bottom, of the key after
+             * the child being visited)
+             */
+            private final ArrayStack<Node> nodes = new ArrayStack<Node>();
+            private final ArrayStack<Integer> indexes = new ArrayStack<Integer>();
+            {
+                descend(root);
+            }
+
+            /**
+             * Push node and the leftmost path below it.
+             */
+            private void descend(Node node) {
+                while (node != null) {
+                    nodes.push(node);
+                    indexes.push(0);
+                    node = node.isLeaf() ? null : node.children[0];
+                }
+                settle();
+            }
+
+            /**
+             * Pop nodes that have no keys left.
+             */
+            private void settle() {
+                while (! nodes.isEmpty() && indexes.top() >= nodes.top().count) {
+                    nodes.pop();
+                    indexes.pop();
+                }
+            }
+
+            public boolean hasNext() {
+                return ! nodes.isEmpty();
+            }
+
+            public K next() {
+                if (nodes.isEmpty())
+                    throw new NoSuchElementException();
+                Node node = nodes.top();
+                int index = indexes.pop();
+                indexes.push(index + 1);
+                K key = node.keys[index];
+                if (node.isLeaf())
+                    settle();
+                else
+                    descend(node.children[index + 1]);
+                return key;
+            }
+        };
+    }
+}
@@ -1,11 +1,19 @@
 package impl;
 
+import java.util.AbstractMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import adt.Map;
+import adt.OrderedMap;
 import adt.Stack;
-import impl.ListStack;
+import impl.ArrayStack;
 
 /**
  * BasicBSTMap
@@ -14,9 +22,9 @@ import impl.ListStack;
  * of a BST implementation of an ordered map. The main difference
  * between mine and Sedgewick is that this does not use recursion.
  * 
- * I do not keep track of the size at each node, and Sedgewick
- * certainly has me beat there. rank() and select() are much
- * better with size. I should re-write this with that improvement.
+ * Each node keeps track of the size of the subtree rooted there,
+ * as Sedgewick does, so that rank() and select() take time 
+ * proportional to the height instead of to the number of keys.
  * 
  * @author Thomas VanDrunen
  * CSCI 345, Wheaton College
@@ -25,17 +33,24 @@ import impl.ListStack;
  * @param <V> The value-type of the map
  */
 
-public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
+public class BasicBSTMap<K extends Comparable<K>, V> implements OrderedMap<K, V>, BoundedSearch<K, V> {
 
     private class Node {
         K key;
         V value;
         Node left, right;
+
+        /**
+         * The total number of associations in the subtree rooted here.
+         */
+        int size;
+
         Node(K key, V value, Node left, Node right) {
             this.key = key;
             this.value = value;
             this.left = left;
             this.right = right;
+            this.size = 1 + sizeOf(left) + sizeOf(right);
         }
         @Override
         public String toString() {
@@ -45,6 +60,11 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
     
     private Node root;
 
+    /**
+     * Where to count this tree's work, null if it isn't counted
+     */
+    private TreeMetrics metrics;
+
     
     /**
      * Gratuitous, perfunctory constructor.
@@ -52,11 +72,52 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
     public BasicBSTMap() {
         root = null;
     }
+
+    /**
+     * Start (or, given null, stop) counting this tree's work.
+     * @param metrics Where to count it
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return Where this tree's work is counted, null if it isn't
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
     
     @Override
     public String toString() {
         return "[" + root + "]";
     }
+
+    /**
+     * The size of the subtree rooted at this node, which may be null.
+     */
+    private int sizeOf(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Adjust the sizes of all the nodes on the way from the root
+     * to the node with the given key, not including that node itself.
+     * PRECONDITION: there is a node with that key.
+     * @param key The key at the end of the route
+     * @param change The amount to add to each size
+     */
+    private void adjustSizesToward(K key, int change) {
+        Node current = root;
+        int compare, visited = 1;
+        while ((compare = key.compareTo(current.key)) != 0) {
+            current.size += change;
+            current = compare < 0 ? current.left : current.right;
+            visited++;
+        }
+        if (metrics != null)
+            metrics.visit(visited, visited);
+    }
     
     /**
      * Find the place in the tree where this key should
@@ -83,8 +144,10 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
         // (Interpreting that last one: current is null only if previous
         //  contains the key we're looking for or if we have gone off the
         //  end of the tree (in which case key is not in the tree at all).)
+        int visited = 0;
         while (current != null) {
             previous = current;
+            visited++;
             int compare = key.compareTo(current.key);
             if (compare < 0) 
                 current = current.left;
@@ -93,6 +156,8 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
             else // if (compare == 0)   
                 current = null;  // terminate loop -- we found what we wanted
         }
+        if (metrics != null)
+            metrics.search(visited, visited);
 
         // On exit: 
         // - If the tree were empty, we would have terminated immediately,
@@ -121,15 +186,21 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
             root = new Node(key, val, null, null);
         else if (prospective.key.equals(key))
             prospective.value = val;
-        else if (prospective.key.compareTo(key) < 0) {
-            assert prospective.right == null;
-            prospective.right = new Node(key, val, null, null);
-        }
-        else { // if (prosepctive.key.compareTo(key) > 0)
-            assert prospective.left == null;
-            prospective.left = new Node(key, val, null, null);
+        else {
+            if (prospective.key.compareTo(key) < 0) {
+                assert prospective.right == null;
+                prospective.right = new Node(key, val, null, null);
+            }
+            else { // if (prosepctive.key.compareTo(key) > 0)
+                assert prospective.left == null;
+                prospective.left = new Node(key, val, null, null);
+            }
+            // every node above the new one has one more below it
+            adjustSizesToward(key, 1);
         }
-            
+
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.PUT);
     }
 
     /**
@@ -139,6 +210,8 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
      */    
     public V get(K key) {
         Node prospective = findNodeOrProspectiveParent(key);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.GET);
         
         // prospective will return null iff the tree is empty.
         // If prospective is not null, then check if the key is 
@@ -159,9 +232,279 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
      */
     public boolean containsKey(K key) {
         Node prospective = findNodeOrProspectiveParent(key);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.CONTAINS_KEY);
         return prospective != null && prospective.key.equals(key);
     }
 
+    /**
+     * Look for a key without writing anything, for ConcurrentTreeMap.
+     * @return The key's value, BoundedSearch.NOT_FOUND, or
+     * BoundedSearch.GAVE_UP
+     */
+    public Object search(K key) {
+        Node current = root;
+        for (int limit = sizeOf(current); current != null; limit--) {
+            if (limit < 0)
+                return BoundedSearch.GAVE_UP;
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0)
+                current = current.right;
+            else // if (compare == 0)
+                return current.value;
+        }
+        return BoundedSearch.NOT_FOUND;
+    }
+
+
+    /**
+     * Remove the association for this key, if any.
+     * If the node holding the key has two children, the node's
+     * in-order successor (the leftmost node of its right subtree)
+     * takes its place: we copy the successor's key and value into
+     * the node and splice the successor out instead.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        Node parent = null,     // the parent of current, if any
+                current = root; // the node we're considering
+
+        int visited = 0;
+        while (current != null) {
+            visited++;
+            int compare = key.compareTo(current.key);
+            if (compare == 0)
+                break;
+            parent = current;
+            current = compare < 0 ? current.left : current.right;
+        }
+        if (metrics != null)
+            metrics.search(visited, visited);
+        if (current == null) {
+            if (metrics != null)
+                metrics.end(TreeMetrics.Operation.REMOVE);
+            return;   // key is not in the tree
+        }
+
+        if (current.left != null && current.right != null) {
+            Node successorParent = current,
+                    successor = current.right;
+            visited = 1;
+            while (successor.left != null) {
+                successorParent = successor;
+                successor = successor.left;
+                visited++;
+            }
+            if (metrics != null)
+                metrics.search(visited, 0);
+            // Every node above the successor has one fewer below it.
+            // (No key comes between key and the successor's key, so
+            // the search for the successor's key goes through here.)
+            adjustSizesToward(successor.key, -1);
+            current.key = successor.key;
+            current.value = successor.value;
+            // now remove the successor's node, which has no left child
+            parent = successorParent;
+            current = successor;
+        }
+        else
+            adjustSizesToward(key, -1);
+
+        // current has at most one child, which takes its place
+        Node child = current.left != null ? current.left : current.right;
+        if (parent == null)
+            root = child;
+        else if (parent.left == current)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.REMOVE);
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Return the number of keys in this map that are less than
+     * the given key. The key itself need not be in the map.
+     * @param key The key whose rank we're finding
+     * @return The number of keys less than key
+     */
+    public int rank(K key) {
+        int rank = 0;
+        Node current = root;
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0) {
+                // current and everything on its left come before key
+                rank += sizeOf(current.left) + 1;
+                current = current.right;
+            }
+            else // if (compare == 0)
+                return rank + sizeOf(current.left);
+        }
+        return rank;
+    }
+
+    /**
+     * Return the key with the given rank.
+     * If the index is invalid, an IndexOutOfBoundsException is thrown.
+     * @param index The rank of the key to return, from 0 to size() - 1
+     * @return The key with that rank
+     */
+    public K select(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("" + index);
+        Node current = root;
+        while (true) {
+            int leftSize = sizeOf(current.left);
+            if (index < leftSize)
+                current = current.left;
+            else if (index > leftSize) {
+                index -= leftSize + 1;
+                current = current.right;
+            }
+            else // if (index == leftSize)
+                return current.key;
+        }
+    }
+
+    /**
+     * Return the number of keys in this map that are at least lo
+     * and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The number of keys in [lo, hi)
+     */
+    public int countRange(K lo, K hi) {
+        if (hi.compareTo(lo) <= 0)
+            return 0;
+        return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Return the greatest key in this map that is less than or
+     * equal to the given key.
+     * @param key The key to look below
+     * @return The greatest key not greater than key, null if none exists
+     */
+    public K floorKey(K key) {
+        K best = null;   // the greatest key <= key seen so far
+        Node current = root;
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = current.left;
+            else if (compare > 0) {
+                best = current.key;
+                current = current.right;
+            }
+            else // if (compare == 0)
+                return current.key;
+        }
+        return best;
+    }
+
+    /**
+     * Return the least key in this map that is greater than or
+     * equal to the given key.
+     * @param key The key to look above
+     * @return The least key not less than key, null if none exists
+     */
+    public K ceilingKey(K key) {
+        K best = null;   // the least key >= key seen so far
+        Node current = root;
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0) {
+                best = current.key;
+                current = current.left;
+            }
+            else if (compare > 0)
+                current = current.right;
+            else // if (compare == 0)
+                return current.key;
+        }
+        return best;
+    }
+
+    /**
+     * Add all the associations in these arrays to the map, as if
+     * by putting them one at a time in order.
+     * @param keys The keys, in any order
+     * @param values The values, in the order of their keys
+     */
+    public void putAll(K[] keys, V[] values) {
+        SortedBatch<K, V> batch = new SortedBatch<K, V>(keys, values);
+        root = merge(root, batch, 0, batch.length);
+    }
+
+    /**
+     * Merge the batch's associations at positions [lo, hi) into the
+     * subtree rooted at this node. The batch is split around the
+     * node's key, and each part goes down its own side; a part that
+     * reaches an empty spot becomes a balanced subtree there.
+     * @return The root of the merged subtree
+     */
+    private Node merge(Node node, SortedBatch<K, V> batch, int lo, int hi) {
+        if (lo == hi)
+            return node;
+        if (node == null)
+            return build(batch.source(lo, hi), hi - lo);
+
+        int mid = batch.lowerBound(node.key, lo, hi), rightStart = mid;
+        if (mid < hi && batch.key(mid).compareTo(node.key) == 0) {
+            node.value = batch.value(mid);
+            rightStart = mid + 1;
+        }
+        node.left = merge(node.left, batch, lo, mid);
+        node.right = merge(node.right, batch, rightStart, hi);
+        node.size = 1 + sizeOf(node.left) + sizeOf(node.right);
+        return node;
+    }
+
+    /**
+     * Replace the contents of this map with the given associations,
+     * building a balanced tree directly from the sorted input.
+     * @param keys The keys, in increasing order
+     * @param values The values, in the order of their keys
+     * @param n The number of associations to take from the iterators
+     */
+    public void loadSorted(Iterator<? extends K> keys, Iterator<? extends V> values, int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("" + n);
+        // build the whole tree before replacing anything, in case 
+        // the input turns out to be out of order
+        root = build(new SortedSource<K, V>(keys, values), n);
+    }
+
+    /**
+     * Build a tree from the next n associations of the source, with
+     * the middle one at the root and each half built the same way
+     * below it, so the tree is as short as it can be.
+     * @return The root of the new tree, null if n is 0
+     */
+    private Node build(SortedSource<K, V> source, int n) {
+        if (n == 0)
+            return null;
+        int leftCount = (n - 1) / 2;
+        Node left = build(source, leftCount);
+        K key = source.nextKey();
+        V value = source.nextValue();
+        Node right = build(source, n - 1 - leftCount);
+        return new Node(key, value, left, right);
+    }
 
     /**
      * Iterator that returns the keys in sorted order.
@@ -169,37 +512,195 @@ public class BasicBSTMap<K extends Comparable<K>, V> implements Map<K, V> {
      * @return The iterator 
      */
     public Iterator<K> iterator() {
+        return new RangeIterator(null, null);
+    }
+
+    /**
+     * How the spliterators and bulk operations get around this
+     * tree's nodes
+     */
+    private final TreeTasks.Access<Node, K, V> shape = new TreeTasks.Access<Node, K, V>() {
+        public Node left(Node node) {
+            return node.left;
+        }
 
-        // The stack contains the left-link lineage of the 
-        // the next node, including the next node itself;
-        // the next node is the top element
-        final Stack<Node> st = new ListStack<Node>();
-        for (Node current = root; current != null; current = current.left)
-            st.push(current);
+        public Node right(Node node) {
+            return node.right;
+        }
 
-        return new Iterator<K>() {
-            public boolean hasNext() {
-                return ! st.isEmpty();
-            }
+        public int size(Node node) {
+            return sizeOf(node);
+        }
+
+        public K key(Node node) {
+            return node.key;
+        }
 
-            public K next() {
-                if (st.isEmpty())
-                    throw new NoSuchElementException();
-                else {
-                    Node nextNode = st.pop();
-                    for (Node current = nextNode.right; current != null; 
-                            current = current.left)
-                        st.push(current);
-                    return nextNode.key;
+        public V value(Node node) {
+            return node.value;
+        }
+
+        public void setValue(Node node, V value) {
+            node.value = value;
+        }
+    };
+
+    /**
+     * Spliterator over the keys in sorted order, which splits by
+     * subtree, so that keys().parallel() can divide the tree among
+     * threads.
+     * @return The spliterator
+     */
+    public Spliterator<K> spliterator() {
+        return new TreeSpliterator<Node, K>(shape, root, node -> node.key, null);
+    }
+
+    /**
+     * A stream of the associations in order of their keys, which,
+     * unlike the default, reads each value from its node and can be
+     * split by subtree for parallel streams.
+     * @return The stream
+     */
+    public Stream<java.util.Map.Entry<K, V>> entries() {
+        Spliterator<java.util.Map.Entry<K, V>> entries = 
+                new TreeSpliterator<Node, java.util.Map.Entry<K, V>>(shape, root,
+                        node -> new AbstractMap.SimpleImmutableEntry<K, V>(node.key, node.value),
+                        java.util.Map.Entry.<K, V>comparingByKey());
+        return StreamSupport.stream(entries, false);
+    }
+
+    /**
+     * Apply the action to every association, on several threads.
+     * @param action What to do with each key and its value
+     */
+    public void forEachParallel(BiConsumer<? super K, ? super V> action) {
+        TreeTasks.forEach(shape, root, action);
+    }
+
+    /**
+     * Combine all the values, in key order, on several threads.
+     * @param identity The result for an empty map
+     * @param op How to combine two values
+     * @return The combination of all the values
+     */
+    public V reduceValues(V identity, BinaryOperator<V> op) {
+        return TreeTasks.reduceValues(shape, root, identity, op);
+    }
+
+    /**
+     * Replace every value in place, on several threads.
+     * The shape of the tree doesn't change.
+     * @param fn Computes the new value for each key and old value
+     */
+    public void replaceAllValues(BiFunction<? super K, ? super V, ? extends V> fn) {
+        TreeTasks.replaceAll(shape, root, fn);
+    }
+
+    /**
+     * An immutable copy of this map laid out for fast searching.
+     * @return The frozen map
+     */
+    public EytzingerMap<K, V> freeze() {
+        return new EytzingerMap<K, V>(entries().iterator(), size());
+    }
+
+    /**
+     * Report on the shape of this tree, visiting every node.
+     * @return The report
+     */
+    public ShapeStats shapeStats() {
+        return ShapeStats.measure(shape, root, null, ShapeStats.NONE);
+    }
+
+    /**
+     * Report on the shape of this tree from the depths of randomly
+     * chosen keys, which takes time proportional to samples times
+     * the depth of the tree rather than to its size.
+     * @param samples The number of keys to choose
+     * @param random Where to get the random choices
+     * @return The report
+     */
+    public ShapeStats shapeStats(int samples, Random random) {
+        return ShapeStats.sample(shape, root, samples, random, null, ShapeStats.NONE);
+    }
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least lo and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The iterator
+     */
+    public Iterator<K> range(K lo, K hi) {
+        return new RangeIterator(lo, hi);
+    }
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least the given key.
+     * @param from The key to start from (inclusive)
+     * @return The iterator
+     */
+    public Iterator<K> tailIterator(K from) {
+        return new RangeIterator(from, null);
+    }
+
+    /**
+     * An in-order depth-first traversal of the keys from lo 
+     * (inclusive) up to hi (exclusive), where a null bound means
+     * there is no bound on that side.
+     */
+    private class RangeIterator implements Iterator<K> {
+
+        /**
+         * The stack contains the nodes on the route from the root 
+         * to the next node where we went left (that is, the nodes
+         * still to be visited, each followed by its right subtree),
+         * including the next node itself; the next node is the top
+         * element. So it never holds more than the height of the tree.
+         */
+        private final Stack<Node> st = new ArrayStack<Node>();
+
+        /**
+         * The key to stop before, if any
+         */
+        private final K hi;
+
+        RangeIterator(K lo, K hi) {
+            this.hi = hi;
+            // Search for lo, pushing only the nodes we go left from 
+            // (the ones whose keys are at least lo).
+            Node current = root;
+            while (current != null) {
+                if (lo == null || lo.compareTo(current.key) <= 0) {
+                    st.push(current);
+                    current = current.left;
                 }
+                else
+                    current = current.right;
             }
+        }
 
-            public void remove() {
-                throw new UnsupportedOperationException();
+        public boolean hasNext() {
+            return ! st.isEmpty() && 
+                    (hi == null || st.top().key.compareTo(hi) < 0);
+        }
+
+        public K next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            else {
+                Node nextNode = st.pop();
+                for (Node current = nextNode.right; current != null; 
+                        current = current.left)
+                    st.push(current);
+                return nextNode.key;
             }
-            
-        };
-    }
+        }
 
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 
 }
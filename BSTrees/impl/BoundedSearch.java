@@ -0,0 +1,38 @@
+package impl;
+
+/**
+ * BoundedSearch
+ *
+ * A map whose lookups ConcurrentTreeMap can run without a lock while
+ * a writer may be changing the map. search() only reads the tree
+ * (it doesn't splay, cache, or count metrics), goes down it in a
+ * loop rather than by recursion, and gives up once it has gone
+ * through more nodes than the tree has. A search racing a rotation
+ * can see links that briefly make a cycle; giving up is what keeps
+ * such a search from going round it forever.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+interface BoundedSearch<K, V> {
+
+    /**
+     * What search() returns if the key is not in the map
+     */
+    Object NOT_FOUND = new Object();
+
+    /**
+     * What search() returns if it went through more nodes than the
+     * tree has, which a tree that is not being changed never makes it
+     * do
+     */
+    Object GAVE_UP = new Object();
+
+    /**
+     * Look for a key, only reading the tree.
+     * @param key The key to look for
+     * @return The key's value (possibly null), NOT_FOUND, or GAVE_UP
+     */
+    Object search(K key);
+}
@@ -0,0 +1,202 @@
+package impl;
+
+import java.util.Iterator;
+
+import adt.Map;
+
+/**
+ * CachedMap
+ *
+ * A map that answers repeated lookups of the same few keys from a
+ * small cache instead of searching the tree each time, made by
+ * wrapping any map. The cache is direct-mapped: a key can only be
+ * held in the one slot its hash code picks, so a lookup costs one
+ * hash, one equals(), and two array reads, and a key that comes
+ * into the cache simply replaces whatever was in its slot. Keys that
+ * are looked up often tend to be in their slots when they are
+ * looked up again, while keys looked up once pass through without
+ * costing anything but the slot they take over.
+ *
+ * Only keys that get() finds with non-null values are cached; a
+ * containsKey() that misses just asks the wrapped map, so a key
+ * that isn't there costs one search, as it would with no cache.
+ * put() and remove() go straight to the wrapped map and then update
+ * or clear the key's slot, so the cache never answers with a stale
+ * value. The map counts hits and misses, for choosing a capacity.
+ *
+ * Lookups write to the cache, so this map is not safe even for
+ * concurrent readers.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class CachedMap<K, V> implements Map<K, V> {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The map all operations are carried out on
+     */
+    private final Map<K, V> internal;
+
+    /**
+     * The cached keys and their values, by slot; an empty slot has
+     * a null key.
+     */
+    private final K[] keys;
+
+    private final V[] values;
+
+    /**
+     * 32 - log2 of the number of slots; a key's slot is the top
+     * bits of its scrambled hash code
+     */
+    private final int shift;
+
+    private long hits, misses;
+
+    /**
+     * Constructor to wrap a map with a cache of the default capacity.
+     * @param internal The map to wrap
+     */
+    public CachedMap(Map<K, V> internal) {
+        this(internal, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor to wrap a map. The map should not be changed
+     * directly once it is wrapped.
+     * @param internal The map to wrap
+     * @param capacity The number of keys the cache can hold; rounded
+     * up to a power of 2, at least 2
+     */
+    @SuppressWarnings("unchecked")
+    public CachedMap(Map<K, V> internal, int capacity) {
+        int bits = 1;
+        while (bits < 30 && (1 << bits) < capacity)
+            bits++;
+        this.internal = internal;
+        this.keys = (K[]) new Object[1 << bits];
+        this.values = (V[]) new Object[1 << bits];
+        this.shift = 32 - bits;
+    }
+
+    /**
+     * The slot for this key. Multiplying by a constant near
+     * 2^32 / golden ratio and keeping the top bits spreads out even
+     * keys whose hash codes differ only in their high or low bits,
+     * like consecutive Integers.
+     */
+    private int slot(K key) {
+        return (key.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        int slot = slot(key);
+        if (key.equals(keys[slot])) {
+            hits++;
+            return values[slot];
+        }
+        misses++;
+        V value = internal.get(key);
+        if (value != null) {
+            keys[slot] = key;
+            values[slot] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        int slot = slot(key);
+        if (key.equals(keys[slot])) {
+            hits++;
+            return true;
+        }
+        misses++;
+        return internal.containsKey(key);
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        internal.put(key, val);
+        int slot = slot(key);
+        if (key.equals(keys[slot])) {
+            if (val != null)
+                values[slot] = val;
+            else
+                clear(slot);
+        }
+    }
+
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        internal.remove(key);
+        int slot = slot(key);
+        if (key.equals(keys[slot]))
+            clear(slot);
+    }
+
+    private void clear(int slot) {
+        keys[slot] = null;
+        values[slot] = null;
+    }
+
+    /**
+     * Empty the cache, leaving the map as it is.
+     */
+    public void clearCache() {
+        for (int slot = 0; slot < keys.length; slot++)
+            clear(slot);
+    }
+
+    /**
+     * Return the number of lookups (gets and containsKeys) answered
+     * from the cache since the counters were last reset.
+     * @return The number of hits
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that had to search the wrapped
+     * map since the counters were last reset.
+     * @return The number of misses
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * Set the hit and miss counts back to zero.
+     */
+    public void resetCounters() {
+        hits = misses = 0;
+    }
+
+    /**
+     * Iterator that returns the keys of the wrapped map.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return internal.iterator();
+    }
+}
@@ -0,0 +1,141 @@
+package impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec
+ *
+ * How to turn keys or values of some type into bytes and back, for
+ * storing maps outside the heap. A codec either always takes the
+ * same number of bytes (its width), or, if its width is VARIABLE,
+ * starts every encoding with an int giving the number of bytes that
+ * follow it, so that a reader can tell how much to read before it
+ * decodes anything.
+ *
+ * @param <T> The type encoded
+ */
+
+public interface Codec<T> {
+
+    /**
+     * The width of a codec whose encodings differ in length
+     */
+    int VARIABLE = -1;
+
+    /**
+     * The number of bytes every encoding takes, or VARIABLE.
+     * @return The width
+     */
+    int width();
+
+    /**
+     * Put the value's encoding into the buffer at its position,
+     * moving the position past it.
+     * @param value The value to encode
+     * @param out The buffer
+     * @throws java.nio.BufferOverflowException if the buffer doesn't
+     * have room (in which case what was put into it is garbage)
+     */
+    void write(T value, ByteBuffer out);
+
+    /**
+     * Take a value's encoding from the buffer at its position,
+     * moving the position past it.
+     * @param in A buffer holding the whole encoding
+     * @return The value
+     */
+    T read(ByteBuffer in);
+
+    /**
+     * Integers, as 4 big-endian bytes
+     */
+    Codec<Integer> INT = new Codec<Integer>() {
+        public int width() {
+            return 4;
+        }
+
+        public void write(Integer value, ByteBuffer out) {
+            out.putInt(value);
+        }
+
+        public Integer read(ByteBuffer in) {
+            return in.getInt();
+        }
+    };
+
+    /**
+     * Longs, as 8 big-endian bytes
+     */
+    Codec<Long> LONG = new Codec<Long>() {
+        public int width() {
+            return 8;
+        }
+
+        public void write(Long value, ByteBuffer out) {
+            out.putLong(value);
+        }
+
+        public Long read(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+
+    /**
+     * Strings, as their length in bytes followed by their UTF-8
+     * encoding
+     */
+    Codec<String> STRING = new Codec<String>() {
+        public int width() {
+            return VARIABLE;
+        }
+
+        public void write(String value, ByteBuffer out) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+
+        public String read(ByteBuffer in) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Strings of up to maxBytes bytes of UTF-8, each taking a fixed
+     * width: its length in bytes, its encoding, and zeros to pad it
+     * out. Unlike STRING, this can be used where a fixed width is
+     * needed, as by MappedBPlusTreeMap.
+     * @param maxBytes The most bytes a string's encoding may take
+     * @return The codec
+     */
+    static Codec<String> fixedString(final int maxBytes) {
+        return new Codec<String>() {
+            public int width() {
+                return 4 + maxBytes;
+            }
+
+            /**
+             * @throws IllegalArgumentException if the string's
+             * encoding is too long (in which case nothing is put)
+             */
+            public void write(String value, ByteBuffer out) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes)
+                    throw new IllegalArgumentException("more than " + maxBytes + " bytes: " + value);
+                out.putInt(bytes.length);
+                out.put(bytes);
+                out.put(new byte[maxBytes - bytes.length]);
+            }
+
+            public String read(ByteBuffer in) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                in.position(in.position() + maxBytes - bytes.length);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.StampedLock;
+
+import adt.Map;
+
+/**
+ * ConcurrentTreeMap
+ *
+ * A map that can be shared among threads, made by wrapping one of the
+ * (unsynchronized) tree maps in this package. Writers (put, remove)
+ * take an exclusive lock. Readers (get, containsKey) first try an
+ * optimistic read: they search the tree without locking anything and
+ * then check that no writer got in meanwhile; only if one did do they
+ * search again under a shared read lock. So readers don't block one
+ * another, and when there are no writes they don't even write to a
+ * shared lock word.
+ *
+ * The optimistic reads are only for the trees that implement
+ * BoundedSearch: BasicBSTMap, the AVL trees
+ * (AVLTreeMap, HashIndexedTreeMap, and the other subclasses of
+ * AVLTreeMapAbs), RedBlackTreeMap, and ArenaAVLTreeMap. That search
+ * only reads fields and follows child links, without recursion, and
+ * gives up after more steps than the tree has nodes. A search that
+ * races with a write may see a half-finished rotation and come out
+ * wrong, give up, or even throw; in each case the stamp fails to
+ * validate, and the result (or the exception) is thrown away. Since
+ * it doesn't go through get(), lookups made through this map are not
+ * counted in the tree's metrics.
+ *
+ * Any other map is assumed to change itself on lookups, as
+ * SplayTreeMap, CachedMap, and MappedBPlusTreeMap do, so its gets and
+ * containsKeys take the exclusive lock just as writes do, and each
+ * makes just the one call to the wrapped map.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class ConcurrentTreeMap<K, V> implements Map<K, V> {
+
+    /**
+     * The map all operations are carried out on
+     */
+    private final Map<K, V> internal;
+
+    private final StampedLock lock;
+
+    /**
+     * The read-only search of the wrapped map, null if it has none
+     */
+    private final BoundedSearch<K, V> search;
+
+    /**
+     * Constructor to wrap a map. The map should not be used
+     * directly once it is wrapped.
+     * @param internal The map to wrap
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentTreeMap(Map<K, V> internal) {
+        this.internal = internal;
+        this.lock = new StampedLock();
+        this.search = internal instanceof BoundedSearch ? (BoundedSearch<K, V>) internal : null;
+    }
+
+    /**
+     * Look for a key with the wrapped map's read-only search:
+     * optimistically, falling back to the read lock.
+     * PRECONDITION: search is not null
+     * @return The key's value (possibly null), or
+     * BoundedSearch.NOT_FOUND
+     */
+    private Object find(K key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Object found = search.search(key);
+                if (found != BoundedSearch.GAVE_UP && lock.validate(stamp))
+                    return found;
+            } catch (RuntimeException e) {
+                // we saw a write in progress; fall through and retry
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return search.search(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        long stamp = lock.writeLock();
+        try {
+            internal.put(key, val);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        long stamp = lock.writeLock();
+        try {
+            internal.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (search == null) {
+            long stamp = lock.writeLock();
+            try {
+                return internal.get(key);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        Object found = find(key);
+        return found == BoundedSearch.NOT_FOUND ? null : (V) found;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        if (search == null) {
+            long stamp = lock.writeLock();
+            try {
+                return internal.containsKey(key);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        return find(key) != BoundedSearch.NOT_FOUND;
+    }
+
+    /**
+     * Iterator that returns the keys in the wrapped map's order, as
+     * they were when this was called. (The keys are copied out under
+     * the read lock, so later writes don't disturb the iteration.)
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        Object[] keys = new Object[16];
+        int count = 0;
+        long stamp = search == null ? lock.writeLock() : lock.readLock();
+        try {
+            for (K key : internal) {
+                if (count == keys.length)
+                    keys = Arrays.copyOf(keys, count * 2);
+                keys[count++] = key;
+            }
+        } finally {
+            lock.unlock(stamp);
+        }
+
+        @SuppressWarnings("unchecked")
+        final K[] snapshot = (K[]) Arrays.copyOf(keys, count);
+        return Arrays.asList(snapshot).iterator();
+    }
+
+}
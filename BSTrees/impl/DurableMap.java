@@ -0,0 +1,471 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import adt.OrderedMap;
+
+/**
+ * DurableMap
+ *
+ * A map whose changes survive a crash. It wraps an in-memory ordered
+ * map and appends every put and remove to a write-ahead log file
+ * before returning; when it is opened again, it replays the log to
+ * get the map back. Optionally it also keeps a snapshot file:
+ * checkpoint() saves the whole map there and empties the log, and
+ * opening loads the snapshot first, so the log only needs to hold
+ * what happened since the last checkpoint.
+ *
+ * Forcing the log to disk is the expensive part, so writers share
+ * it (group commit). Each writer adds its record to the batch in
+ * memory and then waits until some force covers it; if no force is
+ * under way, it does one itself, for every record batched so far.
+ * While one writer is forcing, the others keep batching, so under
+ * load one force serves many puts. The log is written and forced
+ * without holding the lock, so other threads can go on reading and
+ * batching in the meantime.
+ *
+ * A change is made to the map when it is batched, so another thread
+ * may see it a little before it is durable; the writer itself does
+ * not return until it is. All operations are safe to call from
+ * several threads.
+ *
+ * Each log record is its length, a CRC-32 of its contents, and then
+ * the operation, the key, and (for a put) the value, encoded by the
+ * codecs given, so values may not be null; put() turns null values
+ * away before logging anything. A crash in the middle of
+ * writing a record leaves a torn record at the end of the log,
+ * which replay recognizes and cuts off.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class DurableMap<K extends Comparable<K>, V> implements adt.Map<K, V>, Closeable {
+
+    private static final byte PUT = 1, REMOVE = 2;
+
+    /**
+     * The length and CRC at the start of each record
+     */
+    private static final int RECORD_HEADER = 8;
+
+    private final OrderedMap<K, V> internal;
+
+    private final Codec<K> keyCodec;
+
+    private final Codec<V> valueCodec;
+
+    private final FileChannel log;
+
+    /**
+     * Where checkpoints are saved, null if they aren't
+     */
+    private final Path snapshotFile;
+
+    private final MapSnapshot<K, V> snapshot;
+
+    /**
+     * Guards everything below, and the internal map
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signaled whenever a force finishes
+     */
+    private final Condition forced = lock.newCondition();
+
+    /**
+     * The records batched but not yet written, and a buffer to
+     * batch into while those are being written
+     */
+    private ByteBuffer batch, spare;
+
+    /**
+     * The number of records ever batched, and the number of those
+     * known to be on disk
+     */
+    private long batched, durable;
+
+    /**
+     * Whether some thread is writing and forcing the log now
+     */
+    private boolean forcing;
+
+    /**
+     * The error from the last write to the log, if it failed; after
+     * that the map refuses changes, since it can't log them.
+     */
+    private IOException failure;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Constructor to open a durable map with a log and no snapshot.
+     * @param internal The map to keep in memory; it should be empty
+     * @param keyCodec How to log the keys
+     * @param valueCodec How to log the values
+     * @param logFile The log; created if it doesn't exist, and
+     * replayed into the map if it does
+     * @throws IOException if the log can't be opened or read
+     */
+    public DurableMap(OrderedMap<K, V> internal, Codec<K> keyCodec, Codec<V> valueCodec,
+            Path logFile) throws IOException {
+        this(internal, keyCodec, valueCodec, logFile, null);
+    }
+
+    /**
+     * Constructor to open a durable map with a log and a snapshot.
+     * @param internal The map to keep in memory; it should be empty
+     * @param keyCodec How to log the keys
+     * @param valueCodec How to log the values
+     * @param logFile The log; created if it doesn't exist, and
+     * replayed into the map if it does
+     * @param snapshotFile Where checkpoints are saved; loaded into
+     * the map (before the log is replayed) if it exists; null for none
+     * @throws IOException if the files can't be opened or read
+     */
+    public DurableMap(OrderedMap<K, V> internal, Codec<K> keyCodec, Codec<V> valueCodec,
+            Path logFile, Path snapshotFile) throws IOException {
+        this.internal = internal;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.snapshotFile = snapshotFile;
+        this.snapshot = new MapSnapshot<K, V>(keyCodec, valueCodec);
+        this.batch = ByteBuffer.allocate(1 << 16);
+        this.spare = ByteBuffer.allocate(1 << 16);
+
+        if (snapshotFile != null && Files.exists(snapshotFile))
+            snapshot.load(snapshotFile, internal);
+        this.log = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            replay();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Apply the records in the log to the map, cut off any torn
+     * record at the end, and leave the log positioned to append.
+     */
+    private void replay() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        buf.flip();   // nothing read yet
+        long good = 0;   // the end of the last whole record
+        log.position(0);
+        while (true) {
+            if (! fill(buf, RECORD_HEADER))
+                break;
+            int length = buf.getInt(buf.position());
+            int checksum = buf.getInt(buf.position() + 4);
+            if (length <= 0 || length > log.size() - good)
+                break;   // a torn header
+            if (buf.capacity() < RECORD_HEADER + length) {
+                ByteBuffer bigger = ByteBuffer.allocate(RECORD_HEADER + length);
+                bigger.put(buf).flip();
+                buf = bigger;
+            }
+            if (! fill(buf, RECORD_HEADER + length))
+                break;
+            buf.position(buf.position() + RECORD_HEADER);
+            ByteBuffer record = buf.slice();
+            record.limit(length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+            apply(record);
+            buf.position(buf.position() + length);
+            good += RECORD_HEADER + length;
+        }
+        log.truncate(good);
+        log.position(good);
+    }
+
+    /**
+     * Make sure buf (which is ready for reading) holds at least n
+     * bytes, reading more from the log if it doesn't.
+     * @return false if the log ends first
+     */
+    private boolean fill(ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() >= n)
+            return true;
+        buf.compact();
+        try {
+            while (buf.position() < n)
+                if (log.read(buf) < 0)
+                    return false;
+            return true;
+        } finally {
+            buf.flip();
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        byte op = record.get();
+        K key = keyCodec.read(record);
+        if (op == PUT)
+            internal.put(key, valueCodec.read(record));
+        else
+            internal.remove(key);
+    }
+
+    /**
+     * Add an association to the map, returning once it is logged.
+     * @param key The key to this association
+     * @param val The value to which this key is associated; not null
+     * @throws NullPointerException if the value is null
+     */
+    public void put(K key, V val) {
+        if (val == null)
+            throw new NullPointerException("null value");
+        long sequence;
+        lock.lock();
+        try {
+            sequence = append(PUT, key, val);
+            internal.put(key, val);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Remove the association for this key, if any, returning once
+     * the removal is logged.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        long sequence;
+        lock.lock();
+        try {
+            sequence = append(REMOVE, key, null);
+            internal.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Add a record to the batch. The caller holds the lock. If the
+     * codecs throw, the batch is left as it was, so that no partly
+     * written record can end up in the log and cut off the records
+     * after it when the log is replayed.
+     * @return The record's sequence number
+     */
+    private long append(byte op, K key, V val) {
+        if (failure != null)
+            throw new UncheckedIOException("log failed earlier", failure);
+        while (true) {
+            int start = batch.position();
+            try {
+                if (batch.remaining() <= RECORD_HEADER)
+                    throw new BufferOverflowException();
+                batch.position(start + RECORD_HEADER);
+                batch.put(op);
+                keyCodec.write(key, batch);
+                if (op == PUT)
+                    valueCodec.write(val, batch);
+                int end = batch.position();
+                ByteBuffer contents = batch.duplicate();
+                contents.position(start + RECORD_HEADER).limit(end);
+                crc.reset();
+                crc.update(contents);
+                batch.putInt(start, end - start - RECORD_HEADER);
+                batch.putInt(start + 4, (int) crc.getValue());
+                return ++batched;
+            } catch (BufferOverflowException e) {
+                // Out of room: grow and try again.
+                batch.position(start);
+                ByteBuffer bigger = ByteBuffer.allocate(batch.capacity() * 2);
+                batch.flip();
+                bigger.put(batch);
+                batch = bigger;
+            } catch (RuntimeException | Error e) {
+                batch.position(start);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Wait until the record with this sequence number is on disk,
+     * forcing the log ourselves if no one else is.
+     */
+    private void awaitDurable(long sequence) {
+        lock.lock();
+        try {
+            while (durable < sequence && failure == null) {
+                if (forcing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+
+                // Take the whole batch so far, and write and force it
+                // without the lock, so that others can keep batching.
+                forcing = true;
+                ByteBuffer writing = batch;
+                batch = spare;
+                spare = null;
+                long end = batched;
+                IOException error = null;
+                lock.unlock();
+                try {
+                    writing.flip();
+                    while (writing.hasRemaining())
+                        log.write(writing);
+                    log.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                }
+                writing.clear();
+                spare = writing;
+                forcing = false;
+                if (error == null)
+                    durable = end;
+                else
+                    failure = error;
+                forced.signalAll();
+            }
+            if (durable < sequence)
+                throw new UncheckedIOException("could not write the log", failure);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        lock.lock();
+        try {
+            return internal.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        lock.lock();
+        try {
+            return internal.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterator that returns the keys in order, as they were when
+     * this was called.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        lock.lock();
+        try {
+            @SuppressWarnings("unchecked")
+            K[] keys = (K[]) internal.keys().toArray(Comparable[]::new);
+            return java.util.Arrays.asList(keys).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Save the whole map to the snapshot file and empty the log.
+     * The snapshot is written to a temporary file first and then
+     * moved into place, so a crash leaves either the old snapshot
+     * and the whole log, or the new snapshot (and a log whose
+     * records it already includes, which replay does no harm).
+     * Changes wait while this runs.
+     * @throws IOException if the snapshot can't be written
+     * @throws IllegalStateException if this map has no snapshot file
+     */
+    public void checkpoint() throws IOException {
+        if (snapshotFile == null)
+            throw new IllegalStateException("no snapshot file");
+        lock.lock();
+        try {
+            while (forcing)
+                forced.awaitUninterruptibly();
+            Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                snapshot.write(internal, out);
+                out.force(true);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            // The move is only durable once the directory is; until
+            // then a crash could bring back the old snapshot, so the
+            // log must not be emptied before this.
+            forceDirectory(snapshotFile.toAbsolutePath().getParent());
+
+            // Everything batched is in the snapshot now.
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+            batch.clear();
+            durable = batched;
+            forced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Force a directory's entries (such as a file just moved into
+     * it) to disk.
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Make sure everything is logged, and close the log.
+     * @throws IOException if the log can't be written
+     */
+    public void close() throws IOException {
+        long last;
+        lock.lock();
+        try {
+            last = batched;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            awaitDurable(last);
+        } catch (UncheckedIOException e) {
+            log.close();
+            throw e.getCause();
+        }
+        log.close();
+    }
+}
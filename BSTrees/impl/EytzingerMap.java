@@ -0,0 +1,166 @@
+package impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adt.Map;
+
+/**
+ * EytzingerMap
+ *
+ * A read-only map made by freezing one of the tree maps. The keys
+ * are kept in one array in Eytzinger (breadth-first) order: the
+ * root of a perfectly balanced search tree at index 1, and the
+ * children of the key at index k at 2k and 2k + 1. The values sit in
+ * a parallel array at the same indexes. There are no node objects
+ * at all, so an entry costs two array slots.
+ *
+ * A search moves from k to 2k or 2k + 1 by arithmetic, with no
+ * branch on the comparison but the loop test itself. The first few
+ * levels of the tree share a few cache lines at the front of the
+ * array, which stay cached across searches, and the two children of
+ * a key are next to each other, so the hardware tends to fetch the
+ * next level along with the current one.
+ *
+ * put() and remove() throw UnsupportedOperationException.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public final class EytzingerMap<K extends Comparable<K>, V> implements Map<K, V> {
+
+    /**
+     * The keys, in breadth-first order from index 1; index 0 is unused
+     */
+    private final K[] keys;
+
+    private final V[] values;
+
+    private final int size;
+
+    /**
+     * Constructor to build the map from associations in order.
+     * @param entries The associations, in strictly increasing key order
+     * @param n The number of associations
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    EytzingerMap(Iterator<? extends java.util.Map.Entry<K, V>> entries, int n) {
+        this.keys = (K[]) new Comparable[n + 1];
+        this.values = (V[]) new Object[n + 1];
+        this.size = n;
+        // An in-order walk of the implicit tree visits the indexes
+        // in key order, so fill them as it visits them.
+        for (int k = first(); k != 0; k = successor(k)) {
+            java.util.Map.Entry<K, V> entry = entries.next();
+            keys[k] = entry.getKey();
+            values[k] = entry.getValue();
+        }
+    }
+
+    /**
+     * The index of the least key (the bottom of the leftmost path),
+     * 0 if there are none.
+     */
+    private int first() {
+        if (size == 0)
+            return 0;
+        int k = 1;
+        while (2 * k <= size)
+            k = 2 * k;
+        return k;
+    }
+
+    /**
+     * The index of the next key after the one at k, 0 if none.
+     */
+    private int successor(int k) {
+        if (2 * k + 1 <= size) {
+            // The leftmost index in the right subtree
+            k = 2 * k + 1;
+            while (2 * k <= size)
+                k = 2 * k;
+            return k;
+        }
+        // Climb while we are a right child; then the parent is next.
+        while ((k & 1) == 1)
+            k >>>= 1;
+        return k >>> 1;
+    }
+
+    /**
+     * The index of the least key not less than key, 0 if none.
+     */
+    private int lowerBound(K key) {
+        int k = 1;
+        while (k <= size)
+            k = 2 * k + (keys[k].compareTo(key) < 0 ? 1 : 0);
+        // The path went right after the answer every time since
+        // its last left turn; undo those right turns and the left.
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        int k = lowerBound(key);
+        return k != 0 && keys[k].compareTo(key) == 0 ? values[k] : null;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        int k = lowerBound(key);
+        return k != 0 && keys[k].compareTo(key) == 0;
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unsupported: a frozen map can't change.
+     */
+    public void put(K key, V val) {
+        throw new UnsupportedOperationException("frozen map");
+    }
+
+    /**
+     * Unsupported: a frozen map can't change.
+     */
+    public void remove(K key) {
+        throw new UnsupportedOperationException("frozen map");
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            private int next = first();
+
+            public boolean hasNext() {
+                return next != 0;
+            }
+
+            public K next() {
+                if (next == 0)
+                    throw new NoSuchElementException();
+                K key = keys[next];
+                next = successor(next);
+                return key;
+            }
+        };
+    }
+}
@@ -0,0 +1,254 @@
+package impl;
+
+import java.util.Iterator;
+
+/**
+ * HashIndexedTreeMap
+ *
+ * An AVL tree map that also keeps a hash index from each key to the
+ * tree node holding it, so that get(), containsKey(), and put() of a
+ * key already in the map go straight to the node, in expected
+ * constant time, instead of descending the tree. Everything that
+ * depends on the order of the keys (iteration, ranges, rank and
+ * select, and so on) still uses the tree. This takes the place of
+ * keeping a java.util.HashMap alongside a tree map.
+ *
+ * The index is an open-addressing table of node references with
+ * linear probing, kept at most half full; each node already holds
+ * its key, so the table holds nothing else. That is two to four
+ * references per association on top of the tree's node. Rotations
+ * move nodes around without changing their keys, so only adding
+ * and removing nodes touch the index. Removing a key whose node has
+ * two children copies the successor's association into that node,
+ * so the successor's key is re-indexed to it. putAll() and
+ * loadSorted() rebuild the index from the tree.
+ *
+ * Keys must have hash codes consistent with compareTo(): keys that
+ * compare equal must be equals() and have the same hash code.
+ *
+ * Operations answered from the index alone show up in the tree
+ * metrics with no comparisons and no nodes visited.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class HashIndexedTreeMap<K extends Comparable<K>, V> extends AVLTreeMap<K, V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The index: each node of the tree is in the first empty-or-its
+     * slot at or after the slot its key hashes to, wrapping around.
+     */
+    private Node[] table;
+
+    /**
+     * 32 - log2 of the table's length; a key hashes to the top bits
+     * of its scrambled hash code
+     */
+    private int shift;
+
+    /**
+     * The number of nodes in the index
+     */
+    private int count;
+
+    public HashIndexedTreeMap() {
+        clearIndex(MIN_CAPACITY);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void clearIndex(int capacity) {
+        table = (Node[]) new AVLTreeMapAbs.Node[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        count = 0;
+    }
+
+    /**
+     * The slot this key hashes to.
+     */
+    private int home(K key) {
+        return (key.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Find the node with this key in the index.
+     * @return The node, or null if the key is not in the map
+     */
+    private Node lookup(K key) {
+        int mask = table.length - 1;
+        for (int slot = home(key); ; slot = (slot + 1) & mask) {
+            Node node = table[slot];
+            if (node == null || node.key.equals(key))
+                return node;
+        }
+    }
+
+    /**
+     * Put a node, whose key is not in the index, into the index.
+     */
+    private void index(Node node) {
+        if (2 * (count + 1) > table.length)
+            resize(2 * table.length);
+        insert(node);
+    }
+
+    private void insert(Node node) {
+        int mask = table.length - 1;
+        int slot = home(node.key);
+        while (table[slot] != null)
+            slot = (slot + 1) & mask;
+        table[slot] = node;
+        count++;
+    }
+
+    private void resize(int capacity) {
+        Node[] old = table;
+        clearIndex(capacity);
+        for (Node node : old)
+            if (node != null)
+                insert(node);
+    }
+
+    /**
+     * Take a node out of the index, looking for it from the slot
+     * its old key hashes to, and move the nodes after it back so
+     * that each can still be found from its own key's slot.
+     */
+    private void unindex(Node node, K oldKey) {
+        int mask = table.length - 1;
+        int hole = home(oldKey);
+        while (table[hole] != node)
+            hole = (hole + 1) & mask;
+        for (int slot = (hole + 1) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            // The node here can fill the hole unless its home is
+            // (cyclically) after the hole, up to here.
+            int home = home(table[slot].key);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = null;
+        count--;
+    }
+
+    /**
+     * Index the whole tree afresh.
+     */
+    private void reindex() {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * size())
+            capacity *= 2;
+        clearIndex(capacity);
+        ArrayStack<Node> st = new ArrayStack<Node>();
+        if (root != null)
+            st.push(root);
+        while (! st.isEmpty()) {
+            Node node = st.pop();
+            insert(node);
+            if (node.left != null)
+                st.push(node.left);
+            if (node.right != null)
+                st.push(node.right);
+        }
+    }
+
+    protected void nodeAdded(Node node) {
+        index(node);
+    }
+
+    protected void nodeRemoved(K key, Node moved) {
+        if (moved == null)
+            unindex(lookup(key), key);
+        else {
+            // moved was indexed under key but now holds its
+            // successor's key, which is indexed to the successor's
+            // old node.
+            unindex(moved, key);
+            int mask = table.length - 1;
+            int slot = home(moved.key);
+            while (! table[slot].key.equals(moved.key))
+                slot = (slot + 1) & mask;
+            table[slot] = moved;
+        }
+        if (table.length > MIN_CAPACITY && 8 * count < table.length)
+            resize(table.length / 2);
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        Node node = lookup(key);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.GET);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        Node node = lookup(key);
+        if (metrics != null)
+            metrics.end(TreeMetrics.Operation.CONTAINS_KEY);
+        return node != null;
+    }
+
+    /**
+     * Add an association to the map. If the key is already in the
+     * map, this just replaces the value in its node.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        Node node = lookup(key);
+        if (node == null)
+            super.put(key, val);
+        else {
+            node.value = val;
+            if (metrics != null)
+                metrics.end(TreeMetrics.Operation.PUT);
+        }
+    }
+
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        if (lookup(key) != null)
+            super.remove(key);
+        else if (metrics != null)
+            metrics.end(TreeMetrics.Operation.REMOVE);
+    }
+
+    /**
+     * Add all the associations in these arrays to the map, as if
+     * by putting them one at a time in order, then rebuild the index.
+     * @param keys The keys, in any order
+     * @param values The values, in the order of their keys
+     */
+    public void putAll(K[] keys, V[] values) {
+        super.putAll(keys, values);
+        reindex();
+    }
+
+    /**
+     * Replace the contents of this map with the given associations,
+     * then rebuild the index.
+     * @param keys The keys, in increasing order
+     * @param values The values, in the order of their keys
+     * @param n The number of associations to take from the iterators
+     */
+    public void loadSorted(Iterator<? extends K> keys, Iterator<? extends V> values, int n) {
+        super.loadSorted(keys, values, n);
+        reindex();
+    }
+}
@@ -0,0 +1,258 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import adt.IntMap;
+
+/**
+ * IntAVLTreeMap
+ *
+ * An AVL tree specialized for int keys. The structure is the same
+ * as AVLTreeMap's, but keys are stored unboxed in the nodes and
+ * compared with < and >, so put() and get() neither box their
+ * argument nor call compareTo(). The nodes are static classes and
+ * so carry no reference to the enclosing map.
+ *
+ * @param <V> The value-type of the map
+ */
+
+public class IntAVLTreeMap<V> implements IntMap<V> {
+
+    /**
+     * A node with an unboxed key. Only the height is stored; the
+     * balance is computed from the children's heights when needed.
+     */
+    private static class Node<V> {
+        final int key;
+        V value;
+        Node<V> left, right;
+
+        /**
+         * The height of the subtree rooted here
+         * (longest distance from here to any leaf below)
+         */
+        int height;
+
+        Node(int key, V value) {
+            this.key = key;
+            this.value = value;
+            this.height = 1;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + key + ":" + left + "," + right + ")";
+        }
+    }
+
+    /**
+     * The root of this tree
+     */
+    private Node<V> root;
+
+    /**
+     * The route taken by the most recent put(), reused from one
+     * put() to the next.
+     */
+    private Node<V>[] path;
+
+    /**
+     * Gratuitous, perfunctory constructor.
+     */
+    @SuppressWarnings("unchecked")
+    public IntAVLTreeMap() {
+        root = null;
+        path = (Node<V>[]) new Node<?>[16];
+    }
+
+    @Override
+    public String toString() {
+        return "[" + root + "]";
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void recompute(Node<?> node) {
+        int leftHeight = height(node.left), rightHeight = height(node.right);
+        node.height = (leftHeight > rightHeight ? leftHeight : rightHeight) + 1;
+    }
+
+    private static <V> Node<V> rotateRight(Node<V> node) {
+        Node<V> replacement = node.left;
+        node.left = replacement.right;
+        replacement.right = node;
+        recompute(node);
+        recompute(replacement);
+        return replacement;
+    }
+
+    private static <V> Node<V> rotateLeft(Node<V> node) {
+        Node<V> replacement = node.right;
+        node.right = replacement.left;
+        replacement.left = node;
+        recompute(node);
+        recompute(replacement);
+        return replacement;
+    }
+
+    /**
+     * Recompute the height at this node and, if it is out of
+     * balance, rotate it back into balance.
+     * PRECONDITION: the subtrees of this node are AVL trees
+     * whose heights differ by at most two.
+     * @return The node that should take this node's place
+     */
+    private static <V> Node<V> rebalance(Node<V> node) {
+        recompute(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);   // left-right case
+            return rotateRight(node);
+        }
+        else if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right); // right-left case
+            return rotateLeft(node);
+        }
+        else
+            return node;
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(int key, V val) {
+        if (root == null) {
+            root = new Node<V>(key, val);
+            return;
+        }
+        if (path.length < root.height + 1)
+            path = Arrays.copyOf(path, root.height * 2);
+
+        // Go down, recording the route, until we either find the key
+        // or hang a new leaf off the bottom of the tree.
+        int depth = 0;
+        Node<V> current = root;
+        while (true) {
+            path[depth++] = current;
+            if (key < current.key) {
+                if (current.left == null) {
+                    current.left = new Node<V>(key, val);
+                    break;
+                }
+                current = current.left;
+            }
+            else if (key > current.key) {
+                if (current.right == null) {
+                    current.right = new Node<V>(key, val);
+                    break;
+                }
+                current = current.right;
+            }
+            else { // key == current.key
+                current.value = val;
+                Arrays.fill(path, 0, depth, null);
+                return;
+            }
+        }
+
+        // Come back up, rebalancing. Once a subtree comes out the
+        // same height it went in, nothing above it can have changed.
+        for (int i = depth - 1; i >= 0; i--) {
+            Node<V> node = path[i];
+            int oldHeight = node.height;
+            Node<V> replacement = rebalance(node);
+            if (i == 0)
+                root = replacement;
+            else if (path[i - 1].left == node)
+                path[i - 1].left = replacement;
+            else
+                path[i - 1].right = replacement;
+            if (replacement == node && node.height == oldHeight)
+                break;
+        }
+        Arrays.fill(path, 0, depth, null);
+    }
+
+    /**
+     * Find the node containing this key, if any.
+     * @return The node with this key, or null if there is none.
+     */
+    private Node<V> findNode(int key) {
+        Node<V> current = root;
+        while (current != null) {
+            if (key < current.key)
+                current = current.left;
+            else if (key > current.key)
+                current = current.right;
+            else
+                return current;
+        }
+        return null;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(int key) {
+        Node<V> node = findNode(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(int key) {
+        return findNode(key) != null;
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order.
+     * This performs an in-order depth-first traversal.
+     * @return The iterator
+     */
+    public PrimitiveIterator.OfInt keyIterator() {
+
+        // The stack contains the left-link lineage of the
+        // the next node, including the next node itself;
+        // the next node is the top element
+        final ArrayStack<Node<V>> st = new ArrayStack<Node<V>>(height(root));
+        for (Node<V> current = root; current != null; current = current.left)
+            st.push(current);
+
+        return new PrimitiveIterator.OfInt() {
+            public boolean hasNext() {
+                return ! st.isEmpty();
+            }
+
+            public int nextInt() {
+                if (st.isEmpty())
+                    throw new NoSuchElementException();
+                else {
+                    Node<V> nextNode = st.pop();
+                    for (Node<V> current = nextNode.right; current != null;
+                            current = current.left)
+                        st.push(current);
+                    return nextNode.key;
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
+}
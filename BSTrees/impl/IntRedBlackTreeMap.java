@@ -0,0 +1,253 @@
+package impl;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import adt.IntMap;
+
+/**
+ * IntRedBlackTreeMap
+ *
+ * A red-black tree specialized for int keys. Insertion follows the
+ * same cases as RedBlackTreeMap (the uncle case, and the rotation
+ * cases 2a and 2b), but keys are stored unboxed and compared with
+ * < and >. Since there is no null object here, missing children
+ * are plain null links and count as black.
+ *
+ * @param <V> The value-type of the map
+ */
+
+public class IntRedBlackTreeMap<V> implements IntMap<V> {
+
+    /**
+     * A node with an unboxed key.
+     */
+    private static class Node<V> {
+        final int key;
+        V value;
+        Node<V> left, right;
+        boolean isRed;
+
+        Node(int key, V value) {
+            this.key = key;
+            this.value = value;
+            this.isRed = true;
+        }
+
+        @Override
+        public String toString() {
+            return (isRed?"{":"[") + left + " " + key + " " + right +
+                    (isRed?"}":"]");
+        }
+    }
+
+    /**
+     * Are we in debugging mode?
+     */
+    public static boolean DEBUG = false;
+
+    /**
+     * The root of the entire red-black tree
+     */
+    private Node<V> root;
+
+    /**
+     * Gratuitous, perfunctory constructor.
+     */
+    public IntRedBlackTreeMap() {
+        root = null;
+    }
+
+    @Override
+    public String toString() {
+        return "" + root;
+    }
+
+    private static boolean isRed(Node<?> node) {
+        return node != null && node.isRed;
+    }
+
+    /**
+     * Is this node red with a red child? If so, its parent
+     * has to fix things up.
+     */
+    private static boolean isDoubleRed(Node<?> node) {
+        return isRed(node) && (isRed(node.left) || isRed(node.right));
+    }
+
+    private static <V> Node<V> rotateRight(Node<V> node) {
+        Node<V> replacement = node.left;
+        node.left = replacement.right;
+        replacement.right = node;
+        return replacement;
+    }
+
+    private static <V> Node<V> rotateLeft(Node<V> node) {
+        Node<V> replacement = node.right;
+        node.right = replacement.left;
+        replacement.left = node;
+        return replacement;
+    }
+
+    /**
+     * Add an association to the subtree rooted at this node.
+     * @return The node to stand in this one's place (possibly still
+     * this one); the caller checks it for a double red.
+     */
+    private Node<V> put(Node<V> node, int key, V val) {
+        if (node == null)
+            return new Node<V>(key, val);
+
+        if (key < node.key) {
+            node.left = put(node.left, key, val);
+            if (isDoubleRed(node.left)) {
+                if (isRed(node.right)) {
+                    // case 1: the uncle is red, so just recolor
+                    node.isRed = true;
+                    node.left.isRed = false;
+                    node.right.isRed = false;
+                }
+                else {
+                    // case 2a: straighten out a left-right zig-zag
+                    if (isRed(node.left.right))
+                        node.left = rotateLeft(node.left);
+                    // case 2b
+                    node = rotateRight(node);
+                    node.isRed = false;
+                    node.right.isRed = true;
+                }
+            }
+        }
+        else if (key > node.key) {
+            node.right = put(node.right, key, val);
+            if (isDoubleRed(node.right)) {
+                if (isRed(node.left)) {
+                    // case 1: the uncle is red, so just recolor
+                    node.isRed = true;
+                    node.left.isRed = false;
+                    node.right.isRed = false;
+                }
+                else {
+                    // case 2a: straighten out a right-left zig-zag
+                    if (isRed(node.right.left))
+                        node.right = rotateRight(node.right);
+                    // case 2b
+                    node = rotateLeft(node);
+                    node.isRed = false;
+                    node.left.isRed = true;
+                }
+            }
+        }
+        else // key == node.key
+            node.value = val;
+        return node;
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(int key, V val) {
+        root = put(root, key, val);
+
+        // The root is never red.
+        root.isRed = false;
+
+        if (DEBUG)
+            blackHeight(root);
+    }
+
+    /**
+     * Determine the black height of the subtree rooted at this node,
+     * throwing an IllegalStateException if it is inconsistent or if
+     * there is a double red.
+     */
+    private static int blackHeight(Node<?> node) {
+        if (node == null)
+            return 1;
+        if (isDoubleRed(node))
+            throw new IllegalStateException("double red at " + node.key);
+        int leftBlackHeight = blackHeight(node.left),
+            rightBlackHeight = blackHeight(node.right);
+        if (leftBlackHeight != rightBlackHeight)
+            throw new IllegalStateException(node.key + " has left height "
+                    + leftBlackHeight + " and right height "
+                    + rightBlackHeight + ".");
+        return leftBlackHeight + (node.isRed? 0 : 1);
+    }
+
+    /**
+     * Find the node containing this key, if any.
+     * @return The node with this key, or null if there is none.
+     */
+    private Node<V> findNode(int key) {
+        Node<V> current = root;
+        while (current != null) {
+            if (key < current.key)
+                current = current.left;
+            else if (key > current.key)
+                current = current.right;
+            else
+                return current;
+        }
+        return null;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(int key) {
+        Node<V> node = findNode(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(int key) {
+        return findNode(key) != null;
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order.
+     * @return The iterator
+     */
+    public PrimitiveIterator.OfInt keyIterator() {
+
+        // The stack contains the left-link lineage of the
+        // the next node, including the next node itself;
+        // the next node is the top element
+        final ArrayStack<Node<V>> st = new ArrayStack<Node<V>>();
+        for (Node<V> current = root; current != null; current = current.left)
+            st.push(current);
+
+        return new PrimitiveIterator.OfInt() {
+            public boolean hasNext() {
+                return ! st.isEmpty();
+            }
+
+            public int nextInt() {
+                if (st.isEmpty())
+                    throw new NoSuchElementException();
+                else {
+                    Node<V> nextNode = st.pop();
+                    for (Node<V> current = nextNode.right; current != null;
+                            current = current.left)
+                        st.push(current);
+                    return nextNode.key;
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,261 @@
+package impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import adt.OrderedMap;
+
+/**
+ * MapSnapshot
+ *
+ * Saves the contents of an ordered map to a compact binary form and
+ * loads it back. A snapshot is a header (the magic number, the format
+ * version, and the number of associations) followed by each key and
+ * its value, encoded by the codecs given, in increasing key order.
+ *
+ * Writing walks the tree once, taking each value from its node
+ * rather than looking it up. Reading decodes the associations as
+ * loadSorted() asks for them, so the tree is built balanced, in one
+ * pass, with no searches. Both go through a buffer, so the channel
+ * sees a few large reads or writes rather than one per association.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class MapSnapshot<K extends Comparable<K>, V> {
+
+    /**
+     * The first four bytes of every snapshot ("BSTS")
+     */
+    public static final int MAGIC = 0x42535453;
+
+    /**
+     * The version of the format written by this class
+     */
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Codec<K> keyCodec;
+
+    private final Codec<V> valueCodec;
+
+    /**
+     * Constructor to make a snapshot format for maps with these
+     * types of keys and values.
+     * @param keyCodec How to encode the keys
+     * @param valueCodec How to encode the values
+     */
+    public MapSnapshot(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Write a snapshot of the map to the channel. The map must not
+     * change while this runs.
+     * @param map The map to save
+     * @param channel Where to write it; this leaves it open
+     * @throws IOException if writing fails
+     */
+    public void write(OrderedMap<K, V> map, WritableByteChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(map.size());
+
+        Iterator<java.util.Map.Entry<K, V>> entries = map.entries().iterator();
+        while (entries.hasNext()) {
+            java.util.Map.Entry<K, V> entry = entries.next();
+            while (true) {
+                int start = buf.position();
+                try {
+                    keyCodec.write(entry.getKey(), buf);
+                    valueCodec.write(entry.getValue(), buf);
+                    break;
+                } catch (BufferOverflowException e) {
+                    // Take back the partial entry and make room for it:
+                    // flush what's before it, or, if nothing is, grow.
+                    buf.position(start);
+                    if (start > 0)
+                        flush(buf, channel);
+                    else
+                        buf = ByteBuffer.allocateDirect(buf.capacity() * 2);
+                }
+            }
+        }
+        flush(buf, channel);
+    }
+
+    private static void flush(ByteBuffer buf, WritableByteChannel channel) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * Read a snapshot from the channel into the map, replacing what
+     * the map held before.
+     * @param channel Where to read it from; this leaves it open
+     * @param map The map to load
+     * @throws IOException if reading fails, if the channel doesn't
+     * hold a snapshot of a version this can read, or if the snapshot
+     * ends early or its keys are out of order (in which case the map
+     * is left as it was)
+     */
+    public void read(ReadableByteChannel channel, OrderedMap<K, V> map) throws IOException {
+        final Input in = new Input(channel);
+        ByteBuffer header = in.require(HEADER_SIZE);
+        if (header.getInt() != MAGIC)
+            throw new IOException("not a map snapshot");
+        int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported snapshot version " + version);
+        long count = header.getLong();
+        if (count < 0 || count > Integer.MAX_VALUE)
+            throw new IOException("bad snapshot size " + count);
+
+        // The trees take each key's value right after the key, so
+        // the value iterator just hands over the value read with
+        // the last key.
+        final Object[] pendingValue = new Object[1];
+        Iterator<K> keys = new Iterator<K>() {
+            public boolean hasNext() {
+                return true;
+            }
+
+            public K next() {
+                try {
+                    K key = keyCodec.read(in.require(keyCodec));
+                    pendingValue[0] = valueCodec.read(in.require(valueCodec));
+                    return key;
+                } catch (IOException e) {
+                    throw new SnapshotReadException(e);
+                }
+            }
+        };
+        Iterator<V> values = new Iterator<V>() {
+            public boolean hasNext() {
+                return true;
+            }
+
+            @SuppressWarnings("unchecked")
+            public V next() {
+                return (V) pendingValue[0];
+            }
+        };
+
+        try {
+            map.loadSorted(keys, values, (int) count);
+        } catch (SnapshotReadException e) {
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("bad snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Save a snapshot of the map to a file, replacing the file if it
+     * already exists.
+     * @param map The map to save
+     * @param file The file to write
+     * @throws IOException if writing fails
+     */
+    public void save(OrderedMap<K, V> map, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(map, channel);
+        }
+    }
+
+    /**
+     * Load a snapshot from a file into the map, replacing what the
+     * map held before.
+     * @param file The file to read
+     * @param map The map to load
+     * @throws IOException if reading fails or the file is not a
+     * snapshot this can read
+     */
+    public void load(Path file, OrderedMap<K, V> map) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel, map);
+        }
+    }
+
+    /**
+     * Carries an IOException out through loadSorted(), whose
+     * iterators can't throw one.
+     */
+    private static class SnapshotReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SnapshotReadException(IOException cause) {
+            super(cause);
+        }
+
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * A buffer over a channel that is refilled as the codecs need
+     * more bytes.
+     */
+    private static class Input {
+        private final ReadableByteChannel channel;
+
+        private ByteBuffer buf;
+
+        Input(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.flip();   // nothing read yet
+        }
+
+        /**
+         * Make sure the buffer holds the next n bytes.
+         * @return The buffer, positioned at them
+         * @throws EOFException if the channel ends first
+         */
+        ByteBuffer require(int n) throws IOException {
+            if (buf.remaining() >= n)
+                return buf;
+            if (buf.capacity() < n) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(n, buf.capacity() * 2));
+                bigger.put(buf);
+                buf = bigger;
+            }
+            else
+                buf.compact();
+            while (buf.position() < n)
+                if (channel.read(buf) < 0)
+                    throw new EOFException("snapshot ends early");
+            buf.flip();
+            return buf;
+        }
+
+        /**
+         * Make sure the buffer holds the next encoding by this codec.
+         * @return The buffer, positioned at it
+         */
+        ByteBuffer require(Codec<?> codec) throws IOException {
+            if (codec.width() != Codec.VARIABLE)
+                return require(codec.width());
+            int length = require(4).getInt(buf.position());
+            if (length < 0)
+                throw new IOException("bad length " + length + " in snapshot");
+            return require(4 + length);
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+
+import adt.Map;
+
+/**
+ * MappedBPlusTreeMap
+ *
+ * A map kept in a file rather than in the heap, as a B+ tree of
+ * fixed-size pages. Internal pages hold keys and the numbers of their
+ * child pages; leaf pages hold keys and values, and each leaf links
+ * to the next, so iteration just follows the chain of leaves.
+ *
+ * The file is read and written through memory-mapped segments, each
+ * holding many pages. A bounded number of segments is kept in a
+ * cache, least recently used first out, so the heap holds only the
+ * small cache and the file can be far bigger. A segment dropped from
+ * the cache is forced first, so its changes reach the file, but it
+ * is only unmapped once it is garbage collected; a cache much
+ * smaller than the segments in use can run up many mappings before
+ * then. Keys and values are stored by fixed-width codecs, so a
+ * search finds a key's slot by arithmetic and decodes only the keys
+ * its binary search looks at, never a whole page.
+ *
+ * Deletion is lazy: a key is taken out of its leaf, but leaves are
+ * never merged, so pages emptied by removes stay (empty) in the tree
+ * and the file does not shrink. Puts fill them again.
+ *
+ * Since the codecs must be fixed-width, maps with String values
+ * need Codec.fixedString() rather than Codec.STRING.
+ *
+ * Changes are made in the mapped pages directly; close() (or
+ * force()) writes those in the cached segments to the file. Page 0 holds the tree's
+ * metadata, so a map can be reopened from its file with the same
+ * page size and codecs.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class MappedBPlusTreeMap<K extends Comparable<K>, V> implements Map<K, V>, Closeable {
+
+    /**
+     * The first four bytes of the file ("BPTM")
+     */
+    private static final int MAGIC = 0x4250544D;
+
+    private static final int VERSION = 1;
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    public static final int DEFAULT_CACHED_SEGMENTS = 64;
+
+    /**
+     * The number of bytes in each mapped segment
+     */
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    private static final int NO_PAGE = -1;
+
+    // Offsets in the metadata page
+    private static final int META_MAGIC = 0, META_VERSION = 4, META_PAGE_SIZE = 8,
+            META_KEY_WIDTH = 12, META_VALUE_WIDTH = 16, META_ROOT = 20,
+            META_HEIGHT = 24, META_PAGE_COUNT = 28, META_SIZE = 32;
+
+    // Offsets in a tree page; the keys start at HEADER
+    private static final int KIND = 0, COUNT = 4, NEXT = 8, HEADER = 12;
+
+    private static final byte LEAF = 1, INTERNAL = 2;
+
+    /**
+     * The leftmost leaf. Splitting a page moves its upper half to a
+     * new page, so the first leaf is always the one the tree started
+     * with.
+     */
+    private static final int FIRST_LEAF = 1;
+
+    private final FileChannel channel;
+
+    private final Codec<K> keyCodec;
+
+    private final Codec<V> valueCodec;
+
+    private final int pageSize, keyWidth, valueWidth;
+
+    /**
+     * The most entries a leaf, and the most keys an internal page,
+     * can hold
+     */
+    private final int leafCapacity, internalCapacity;
+
+    private final int pagesPerSegment;
+
+    /**
+     * The mapped segments, by number, least recently used first
+     */
+    private final LinkedHashMap<Integer, MappedByteBuffer> segments;
+
+    private final int cachedSegments;
+
+    /**
+     * The root page, the number of levels of pages (1 if the root
+     * is a leaf), the number of pages in use, and the number of
+     * associations; all kept in the metadata page as well.
+     */
+    private int root, height, pageCount;
+
+    private long size;
+
+    /**
+     * Constructor to open (or create) a map in this file, with
+     * the default page size and cache size.
+     * @param file The file
+     * @param keyCodec How to store the keys; must be fixed-width
+     * @param valueCodec How to store the values; must be fixed-width
+     * @throws IOException if the file can't be opened, or holds
+     * something other than a map with this page size and codecs' widths
+     */
+    public MappedBPlusTreeMap(Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this(file, keyCodec, valueCodec, DEFAULT_PAGE_SIZE, DEFAULT_CACHED_SEGMENTS);
+    }
+
+    /**
+     * Constructor to open (or create) a map in this file.
+     * @param file The file
+     * @param keyCodec How to store the keys; must be fixed-width
+     * @param valueCodec How to store the values; must be fixed-width
+     * @param pageSize The number of bytes in each page; a power of two
+     * no bigger than a segment (1 MiB)
+     * @param cachedSegments The most segments (of 1 MiB) to keep mapped
+     * @throws IOException if the file can't be opened, or holds
+     * something other than a map with this page size and codecs' widths
+     */
+    public MappedBPlusTreeMap(Path file, Codec<K> keyCodec, Codec<V> valueCodec,
+            int pageSize, int cachedSegments) throws IOException {
+        if (keyCodec.width() == Codec.VARIABLE || valueCodec.width() == Codec.VARIABLE)
+            throw new IllegalArgumentException("codecs must be fixed-width");
+        if (Integer.bitCount(pageSize) != 1 || pageSize > SEGMENT_SIZE)
+            throw new IllegalArgumentException("bad page size " + pageSize);
+        if (cachedSegments < 1)
+            throw new IllegalArgumentException("must cache at least one segment");
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.pageSize = pageSize;
+        this.keyWidth = keyCodec.width();
+        this.valueWidth = valueCodec.width();
+        this.leafCapacity = (pageSize - HEADER) / (keyWidth + valueWidth);
+        this.internalCapacity = (pageSize - HEADER - 4) / (keyWidth + 4);
+        if (leafCapacity < 3 || internalCapacity < 3)
+            throw new IllegalArgumentException("pages too small for these codecs");
+        this.pagesPerSegment = SEGMENT_SIZE / pageSize;
+        this.cachedSegments = cachedSegments;
+        this.segments = new LinkedHashMap<Integer, MappedByteBuffer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(java.util.Map.Entry<Integer, MappedByteBuffer> eldest) {
+                if (size() <= MappedBPlusTreeMap.this.cachedSegments)
+                    return false;
+                // force() only reaches the segments still cached, and
+                // forcing the channel needn't write what was changed
+                // through a mapping, so write this one out now
+                eldest.getValue().force();
+                return true;
+            }
+        };
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0)
+                create();
+            else
+                open();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set up a new, empty tree: the metadata page and one empty leaf.
+     */
+    private void create() {
+        ByteBuffer meta = page(0);
+        meta.putInt(META_MAGIC, MAGIC).putInt(META_VERSION, VERSION)
+                .putInt(META_PAGE_SIZE, pageSize).putInt(META_KEY_WIDTH, keyWidth)
+                .putInt(META_VALUE_WIDTH, valueWidth);
+        clear();
+    }
+
+    /**
+     * Remove every association, leaving the tree a single empty
+     * leaf. The file keeps its length, and its pages (and mapped
+     * segments) are reused as the map fills again.
+     */
+    public void clear() {
+        pageCount = 1;
+        root = allocate(LEAF);
+        height = 1;
+        size = 0;
+        writeMeta();
+    }
+
+    /**
+     * Read the metadata of an existing tree, checking that it was
+     * made with the same layout.
+     */
+    private void open() throws IOException {
+        ByteBuffer meta = page(0);
+        if (meta.getInt(META_MAGIC) != MAGIC)
+            throw new IOException("not a B+ tree map file");
+        if (meta.getInt(META_VERSION) != VERSION)
+            throw new IOException("unsupported version " + meta.getInt(META_VERSION));
+        if (meta.getInt(META_PAGE_SIZE) != pageSize || meta.getInt(META_KEY_WIDTH) != keyWidth
+                || meta.getInt(META_VALUE_WIDTH) != valueWidth)
+            throw new IOException("file has a different page size or key/value widths");
+        root = meta.getInt(META_ROOT);
+        height = meta.getInt(META_HEIGHT);
+        pageCount = meta.getInt(META_PAGE_COUNT);
+        size = meta.getLong(META_SIZE);
+    }
+
+    private void writeMeta() {
+        page(0).putInt(META_ROOT, root).putInt(META_HEIGHT, height)
+                .putInt(META_PAGE_COUNT, pageCount).putLong(META_SIZE, size);
+    }
+
+    /**
+     * The page with this number, mapping its segment if it isn't
+     * already.
+     * @return A buffer over just that page, positioned at its start
+     */
+    private ByteBuffer page(int number) {
+        int segmentNumber = number / pagesPerSegment;
+        MappedByteBuffer segment = segments.get(segmentNumber);
+        if (segment == null) {
+            try {
+                // Mapping past the end of the file (read-write)
+                // grows the file.
+                segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) segmentNumber * SEGMENT_SIZE, SEGMENT_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segments.put(segmentNumber, segment);
+        }
+        ByteBuffer page = segment.duplicate();
+        int start = (number % pagesPerSegment) * pageSize;
+        page.position(start).limit(start + pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Start a new, empty page of this kind.
+     * @return Its number
+     */
+    private int allocate(byte kind) {
+        int number = pageCount++;
+        page(number).put(KIND, kind).putInt(COUNT, 0).putInt(NEXT, NO_PAGE);
+        return number;
+    }
+
+    // Where things are in a page
+
+    private int keyOffset(int index) {
+        return HEADER + index * keyWidth;
+    }
+
+    private int valueOffset(int index) {
+        return HEADER + leafCapacity * keyWidth + index * valueWidth;
+    }
+
+    private int childOffset(int index) {
+        return HEADER + internalCapacity * keyWidth + index * 4;
+    }
+
+    private K keyAt(ByteBuffer page, int index) {
+        page.position(keyOffset(index));
+        return keyCodec.read(page);
+    }
+
+    private V valueAt(ByteBuffer page, int index) {
+        page.position(valueOffset(index));
+        return valueCodec.read(page);
+    }
+
+    private int childAt(ByteBuffer page, int index) {
+        return page.getInt(childOffset(index));
+    }
+
+    /**
+     * The number of keys in the page that are less than key (or,
+     * if orEqual, not greater than it)
+     */
+    private int search(ByteBuffer page, K key, boolean orEqual) {
+        int lo = 0, hi = page.getInt(COUNT);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int compareResult = keyAt(page, mid).compareTo(key);
+            if (compareResult < 0 || (orEqual && compareResult == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Find the leaf where key is or would go, recording the way
+     * down if path is not null.
+     * @param path Filled with the internal pages passed through, by
+     * level (1 is just above the leaves)
+     * @param slots Filled with the child index taken at each of them
+     * @return The leaf's number
+     */
+    private int findLeaf(K key, int[] path, int[] slots) {
+        int current = root;
+        for (int level = height - 1; level >= 1; level--) {
+            ByteBuffer page = page(current);
+            // A separator is the first key of the subtree to its
+            // right, so equal keys go right.
+            int slot = search(page, key, true);
+            if (path != null) {
+                path[level] = current;
+                slots[level] = slot;
+            }
+            current = childAt(page, slot);
+        }
+        return current;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        ByteBuffer leaf = page(findLeaf(key, null, null));
+        int index = search(leaf, key, false);
+        if (index < leaf.getInt(COUNT) && keyAt(leaf, index).compareTo(key) == 0)
+            return valueAt(leaf, index);
+        else
+            return null;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        ByteBuffer leaf = page(findLeaf(key, null, null));
+        int index = search(leaf, key, false);
+        return index < leaf.getInt(COUNT) && keyAt(leaf, index).compareTo(key) == 0;
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        int[] path = new int[height], slots = new int[height];
+        int leafNumber = findLeaf(key, path, slots);
+        ByteBuffer leaf = page(leafNumber);
+        int count = leaf.getInt(COUNT);
+        int index = search(leaf, key, false);
+        // Encode before changing anything, so that a value the codec
+        // can't take (such as null) leaves the map as it was.
+        byte[] valueBytes = encode(valueCodec, val, valueWidth);
+        if (index < count && keyAt(leaf, index).compareTo(key) == 0) {
+            put(leaf, valueOffset(index), valueBytes, 0, valueWidth);
+            return;
+        }
+
+        byte[] keyBytes = encode(keyCodec, key, keyWidth);
+        if (count < leafCapacity) {
+            insert(leaf, keyOffset(0), keyWidth, count, index, keyBytes);
+            insert(leaf, valueOffset(0), valueWidth, count, index, valueBytes);
+            leaf.putInt(COUNT, count + 1);
+            size++;
+            writeMeta();
+            return;
+        }
+
+        // Split the leaf, moving its upper half to a new leaf just
+        // after it in the chain, and put the new leaf's first key
+        // into the parent.
+        byte[] keys = withInserted(leaf, keyOffset(0), keyWidth, count, index, keyBytes);
+        byte[] values = withInserted(leaf, valueOffset(0), valueWidth, count, index, valueBytes);
+        int leftCount = (count + 1) / 2, rightCount = count + 1 - leftCount;
+        int rightNumber = allocate(LEAF);
+        ByteBuffer right = page(rightNumber);
+        put(leaf, keyOffset(0), keys, 0, leftCount * keyWidth);
+        put(leaf, valueOffset(0), values, 0, leftCount * valueWidth);
+        put(right, keyOffset(0), keys, leftCount * keyWidth, rightCount * keyWidth);
+        put(right, valueOffset(0), values, leftCount * valueWidth, rightCount * valueWidth);
+        right.putInt(COUNT, rightCount).putInt(NEXT, leaf.getInt(NEXT));
+        leaf.putInt(COUNT, leftCount).putInt(NEXT, rightNumber);
+
+        byte[] separator = new byte[keyWidth];
+        System.arraycopy(keys, leftCount * keyWidth, separator, 0, keyWidth);
+        insertIntoParents(path, slots, separator, rightNumber);
+        size++;
+        writeMeta();
+    }
+
+    /**
+     * Put a separator and the page to its right into the internal
+     * page above the one just split, splitting that in turn if it
+     * is full, and so on up, growing a new root if the old one splits.
+     */
+    private void insertIntoParents(int[] path, int[] slots, byte[] separator, int rightChild) {
+        for (int level = 1; level < height; level++) {
+            ByteBuffer parent = page(path[level]);
+            int count = parent.getInt(COUNT), slot = slots[level];
+            byte[] childBytes = ByteBuffer.allocate(4).putInt(rightChild).array();
+            if (count < internalCapacity) {
+                insert(parent, keyOffset(0), keyWidth, count, slot, separator);
+                insert(parent, childOffset(0), 4, count + 1, slot + 1, childBytes);
+                parent.putInt(COUNT, count + 1);
+                return;
+            }
+
+            // Split the parent: the middle key moves up, with the keys
+            // and children right of it going to a new page.
+            byte[] keys = withInserted(parent, keyOffset(0), keyWidth, count, slot, separator);
+            byte[] children = withInserted(parent, childOffset(0), 4, count + 1, slot + 1, childBytes);
+            int leftCount = (count + 1) / 2, rightCount = count - leftCount;
+            int rightNumber = allocate(INTERNAL);
+            ByteBuffer right = page(rightNumber);
+            put(parent, keyOffset(0), keys, 0, leftCount * keyWidth);
+            put(parent, childOffset(0), children, 0, (leftCount + 1) * 4);
+            put(right, keyOffset(0), keys, (leftCount + 1) * keyWidth, rightCount * keyWidth);
+            put(right, childOffset(0), children, (leftCount + 1) * 4, (rightCount + 1) * 4);
+            parent.putInt(COUNT, leftCount);
+            right.putInt(COUNT, rightCount);
+
+            separator = new byte[keyWidth];
+            System.arraycopy(keys, leftCount * keyWidth, separator, 0, keyWidth);
+            rightChild = rightNumber;
+        }
+
+        int newRoot = allocate(INTERNAL);
+        ByteBuffer page = page(newRoot);
+        put(page, keyOffset(0), separator, 0, keyWidth);
+        page.putInt(childOffset(0), root).putInt(childOffset(1), rightChild).putInt(COUNT, 1);
+        root = newRoot;
+        height++;
+    }
+
+    /**
+     * Remove the association for this key, if any. The key is taken
+     * out of its leaf; pages are never merged or freed.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        ByteBuffer leaf = page(findLeaf(key, null, null));
+        int count = leaf.getInt(COUNT);
+        int index = search(leaf, key, false);
+        if (index < count && keyAt(leaf, index).compareTo(key) == 0) {
+            move(leaf, keyOffset(index + 1), keyOffset(index), (count - index - 1) * keyWidth);
+            move(leaf, valueOffset(index + 1), valueOffset(index), (count - index - 1) * valueWidth);
+            leaf.putInt(COUNT, count - 1);
+            size--;
+            writeMeta();
+        }
+    }
+
+    // Moving bytes around within pages
+
+    private static <T> byte[] encode(Codec<T> codec, T value, int width) {
+        ByteBuffer buf = ByteBuffer.allocate(width);
+        codec.write(value, buf);
+        return buf.array();
+    }
+
+    private static void put(ByteBuffer page, int offset, byte[] bytes, int from, int length) {
+        page.position(offset);
+        page.put(bytes, from, length);
+    }
+
+    private static void move(ByteBuffer page, int from, int to, int length) {
+        byte[] bytes = new byte[length];
+        page.position(from);
+        page.get(bytes);
+        put(page, to, bytes, 0, length);
+    }
+
+    /**
+     * Make room at index in an array of count items of this width
+     * in the page, and put the item there.
+     */
+    private static void insert(ByteBuffer page, int start, int width, int count, int index,
+            byte[] item) {
+        move(page, start + index * width, start + (index + 1) * width, (count - index) * width);
+        put(page, start + index * width, item, 0, width);
+    }
+
+    /**
+     * Copy an array of count items of this width out of the page,
+     * with the item inserted at index.
+     */
+    private static byte[] withInserted(ByteBuffer page, int start, int width, int count,
+            int index, byte[] item) {
+        byte[] bytes = new byte[(count + 1) * width];
+        page.position(start);
+        page.get(bytes, 0, index * width);
+        System.arraycopy(item, 0, bytes, index * width, width);
+        page.get(bytes, (index + 1) * width, (count - index) * width);
+        return bytes;
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order, by walking
+     * the chain of leaves.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            private int leaf = FIRST_LEAF, index = 0;
+
+            /**
+             * Move past empty leaves (and the end of each leaf).
+             */
+            private boolean advance() {
+                while (leaf != NO_PAGE) {
+                    ByteBuffer page = page(leaf);
+                    if (index < page.getInt(COUNT))
+                        return true;
+                    leaf = page.getInt(NEXT);
+                    index = 0;
+                }
+                return false;
+            }
+
+            public boolean hasNext() {
+                return advance();
+            }
+
+            public K next() {
+                if (! advance())
+                    throw new NoSuchElementException();
+                return keyAt(page(leaf), index++);
+            }
+        };
+    }
+
+    /**
+     * Write all changes to the file.
+     * @throws IOException if writing fails
+     */
+    public void force() throws IOException {
+        for (MappedByteBuffer segment : segments.values())
+            segment.force();
+        channel.force(false);
+    }
+
+    /**
+     * Write all changes to the file and close it. The map can't be
+     * used afterward.
+     * @throws IOException if writing fails
+     */
+    public void close() throws IOException {
+        try {
+            force();
+        } finally {
+            segments.clear();
+            channel.close();
+        }
+    }
+}
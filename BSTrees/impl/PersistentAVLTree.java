@@ -0,0 +1,282 @@
+package impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adt.Stack;
+
+/**
+ * PersistentAVLTree
+ *
+ * An immutable AVL tree: one version of a map that never changes.
+ * Instead of put and remove it has with() and without(), which
+ * return a new version and leave this one as it was. The new version
+ * shares every subtree off the search path with the old one, so
+ * making it copies only the nodes on that path (and any rotated
+ * there), about log n of them. A version that no one refers to
+ * any more is collected like any other garbage, except for the
+ * nodes later versions still share.
+ *
+ * Since nothing in a version ever changes, any number of threads
+ * may read it at once without locking.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public final class PersistentAVLTree<K extends Comparable<K>, V> implements Iterable<K> {
+
+    /**
+     * A node that, once made, never changes. The height and
+     * size are computed from the children when it is made.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left, right;
+
+        /**
+         * The height of the subtree rooted here
+         */
+        final int height;
+
+        /**
+         * The total number of associations in the subtree rooted here
+         */
+        final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+            this.size = sizeOf(left) + sizeOf(right) + 1;
+        }
+    }
+
+    private static int heightOf(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int sizeOf(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final PersistentAVLTree<?, ?> EMPTY = new PersistentAVLTree<>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentAVLTree(Node<K, V> root) {
+        this.root = root;
+    }
+
+    /**
+     * The version with no associations.
+     * @return The empty tree
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<K>, V> PersistentAVLTree<K, V> empty() {
+        return (PersistentAVLTree<K, V>) EMPTY;
+    }
+
+    /**
+     * Make a version like this one but with this association added
+     * (replacing any other association for the key).
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     * @return The new version; this one if it already had exactly
+     * this association
+     */
+    public PersistentAVLTree<K, V> with(K key, V val) {
+        Node<K, V> newRoot = insert(root, key, val);
+        return newRoot == root ? this : new PersistentAVLTree<K, V>(newRoot);
+    }
+
+    /**
+     * Make a version like this one but without an association for
+     * this key.
+     * @param key The key whose association we're leaving out
+     * @return The new version; this one if it had no association
+     * for the key
+     */
+    public PersistentAVLTree<K, V> without(K key) {
+        Node<K, V> newRoot = delete(root, key);
+        return newRoot == root ? this : new PersistentAVLTree<K, V>(newRoot);
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        Node<K, V> node = findNode(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Test if this version contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        return findNode(key) != null;
+    }
+
+    /**
+     * Return the number of associations in this version.
+     * @return The number of keys
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    private Node<K, V> findNode(K key) {
+        Node<K, V> current = root;
+        while (current != null) {
+            int compareResult = key.compareTo(current.key);
+            if (compareResult < 0)
+                current = current.left;
+            else if (compareResult > 0)
+                current = current.right;
+            else
+                return current;
+        }
+        return null;
+    }
+
+    /**
+     * Put the association into the subtree rooted at node, copying
+     * the nodes on the way down to it.
+     * @return The root of the new subtree; node itself if nothing
+     * needed to change
+     */
+    private static <K extends Comparable<K>, V> Node<K, V> insert(Node<K, V> node, K key, V val) {
+        if (node == null)
+            return new Node<K, V>(key, val, null, null);
+        int compareResult = key.compareTo(node.key);
+        if (compareResult < 0) {
+            Node<K, V> left = insert(node.left, key, val);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        else if (compareResult > 0) {
+            Node<K, V> right = insert(node.right, key, val);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        else if (val == node.value)
+            return node;
+        else
+            return new Node<K, V>(key, val, node.left, node.right);
+    }
+
+    /**
+     * Take the association for key out of the subtree rooted at
+     * node, copying the nodes on the way down to it.
+     * @return The root of the new subtree; node itself if the key
+     * was not there
+     */
+    private static <K extends Comparable<K>, V> Node<K, V> delete(Node<K, V> node, K key) {
+        if (node == null)
+            return null;
+        int compareResult = key.compareTo(node.key);
+        if (compareResult < 0) {
+            Node<K, V> left = delete(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        else if (compareResult > 0) {
+            Node<K, V> right = delete(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        else if (node.left == null)
+            return node.right;
+        else if (node.right == null)
+            return node.left;
+        else {
+            // Replace this node with a copy of its successor.
+            Node<K, V> successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+            return balance(successor.key, successor.value, node.left,
+                    deleteMin(node.right));
+        }
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> deleteMin(Node<K, V> node) {
+        if (node.left == null)
+            return node.right;
+        else
+            return balance(node.key, node.value, deleteMin(node.left), node.right);
+    }
+
+    /**
+     * Make a new node for this association with these subtrees,
+     * whose heights differ by at most two, rotating if they differ
+     * by two so that the result is balanced.
+     */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int leftHeight = heightOf(left), rightHeight = heightOf(right);
+        if (leftHeight > rightHeight + 1) {
+            if (heightOf(left.left) >= heightOf(left.right))
+                // single rotation to the right
+                return new Node<K, V>(left.key, left.value, left.left,
+                        new Node<K, V>(key, value, left.right, right));
+            else {
+                // double rotation: left.right comes to the top
+                Node<K, V> middle = left.right;
+                return new Node<K, V>(middle.key, middle.value,
+                        new Node<K, V>(left.key, left.value, left.left, middle.left),
+                        new Node<K, V>(key, value, middle.right, right));
+            }
+        }
+        else if (rightHeight > leftHeight + 1) {
+            if (heightOf(right.right) >= heightOf(right.left))
+                return new Node<K, V>(right.key, right.value,
+                        new Node<K, V>(key, value, left, right.left), right.right);
+            else {
+                Node<K, V> middle = right.left;
+                return new Node<K, V>(middle.key, middle.value,
+                        new Node<K, V>(key, value, left, middle.left),
+                        new Node<K, V>(right.key, right.value, middle.right, right.right));
+            }
+        }
+        else
+            return new Node<K, V>(key, value, left, right);
+    }
+
+    /**
+     * Iterator that returns the keys of this version in order.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            /**
+             * The nodes still to be visited, each followed by its
+             * right subtree; the next node is on top.
+             */
+            private final Stack<Node<K, V>> st = new ArrayStack<Node<K, V>>(heightOf(root) + 1);
+            {
+                for (Node<K, V> current = root; current != null; current = current.left)
+                    st.push(current);
+            }
+
+            public boolean hasNext() {
+                return ! st.isEmpty();
+            }
+
+            public K next() {
+                if (! hasNext())
+                    throw new NoSuchElementException();
+                Node<K, V> nextNode = st.pop();
+                for (Node<K, V> current = nextNode.right; current != null;
+                        current = current.left)
+                    st.push(current);
+                return nextNode.key;
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package impl;
+
+import java.util.Iterator;
+
+import adt.Map;
+
+/**
+ * PersistentAVLTreeMap
+ *
+ * A map that keeps its current contents as a PersistentAVLTree and
+ * replaces that tree with a new version on every put or remove.
+ * The current version is kept in a volatile field, so readers need
+ * no lock: each get, containsKey, or iterator reads the field once
+ * and works on the version it found, which no writer will ever
+ * change. Writers are synchronized with one another, so that no
+ * write is lost; each makes its new version from the latest one.
+ *
+ * snapshot() hands out the current version itself, which costs
+ * nothing and stays as it was however the map changes afterward.
+ * (An iterator is likewise a view of the version current when it
+ * was made.)
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class PersistentAVLTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
+
+    /**
+     * The current version
+     */
+    private volatile PersistentAVLTree<K, V> current;
+
+    /**
+     * Gratuitous, perfunctory constructor.
+     */
+    public PersistentAVLTreeMap() {
+        current = PersistentAVLTree.empty();
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public synchronized void put(K key, V val) {
+        current = current.with(key, val);
+    }
+
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public synchronized void remove(K key) {
+        current = current.without(key);
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        return current.get(key);
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        return current.containsKey(key);
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * The contents of the map as they are now, which later puts and
+     * removes will not affect.
+     * @return The current version
+     */
+    public PersistentAVLTree<K, V> snapshot() {
+        return current;
+    }
+
+    /**
+     * Iterator that returns the keys in order, as they were when
+     * this was called.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return current.iterator();
+    }
+
+}
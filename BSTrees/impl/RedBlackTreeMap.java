@@ -2,18 +2,25 @@ package impl;
 
 import impl.AVLTreeMapAbs.Node;
 
+import java.util.AbstractMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import adt.Map;
+import adt.OrderedMap;
 import adt.Stack;
 
 /**
  * RedBlackTreeMap
  * 
- * An implementation of a (reduced, no-remove) map using 
- * a Red-Black Tree. This is a basic demonstration of a Red-Black Tree
- * with the really hard parts (ie, removal) eliminated.
+ * An implementation of a map using a Red-Black Tree. Insertion
+ * and removal are both implemented recursively in the nodes.
  * 
  * @author Thomas VanDrunen
  * CSCI 345, Wheaton College
@@ -22,7 +29,7 @@ import adt.Stack;
  * @param <V> The value-type of the map
  */
 
-public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
+public class RedBlackTreeMap<K extends Comparable<K>, V> implements OrderedMap<K, V>, BoundedSearch<K, V> {
 
     
     // --------- Exceptions ---------------
@@ -51,16 +58,9 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
     
     /**
      * Exception class to indicate that one of a node's children is red and
-     * has a red child. This normally happens during insertion and should
-     * be fixed up.
-     */
-    private static class DoubleRedException extends Exception {}
-
-    /**
-     * Exception class to indicate that one of a node's children is red and
-     * has a red child; differs from plain old DoubleRedException is that 
-     * this is thrown when the situation is found at a time other than the
-     * tree is currently being modified.
+     * has a red child. (During insertion that situation is normal and
+     * is fixed up as the insertion returns; this is thrown only when it is
+     * found while verifying the tree.)
      */
     private static class DoubleRedWhenVerifyingException extends RuntimeException { }
     
@@ -84,18 +84,36 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
          * the receiver's place in the tree. If no rotation happens,
          * the returned node will be the receiver; if there is a rotation,
          * the returned node will be whatever node is rotated up.
+         * The returned node may be red with a red child; it is up to the
+         * caller (the parent, or the map for the root) to fix that.
          * @param key The key to this association
          * @param val The value to which this key is associated
          * @return The node to stand in this one's place (possibly still this one)
-         * @throws DoubleRedException If the work so far has resulted in two reds.
          */
-        public Node<KK, VV> put(KK key, VV val) throws DoubleRedException;
+        public Node<KK, VV> put(KK key, VV val);
+
+        /**
+         * Remove the association for a key, if any, from the subtree
+         * rooted here. Like put(), this returns the node that should
+         * take the receiver's place. If the black height of the 
+         * subtree went down by one, the map's shortened flag is set
+         * (and cleared otherwise) so that the caller can fix it.
+         * @param key The key whose association we're removing.
+         * @return The node to stand in this one's place (possibly still this one)
+         */
+        public Node<KK, VV> remove(KK key);
 
         /**
          * Is this a red node?
          * @return True if it is red, false otherwise
          */
         public boolean isRed();
+
+        /**
+         * The total number of associations in the subtree rooted here.
+         * @return The number of keys in this subtree
+         */
+        public int size();
         
         /**
          * Determine the black height of the subtree rooted at this node.
@@ -130,6 +148,14 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
             return new RBNode(key, val, this, this);
         }
 
+        /**
+         * There is nothing to remove here.
+         */
+        public Node<K, V> remove(K key) {
+            shortened = false;
+            return this;
+        }
+
         /**
          * The null object is black.
          */
@@ -137,6 +163,13 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
             return false;
         }
 
+        /**
+         * The subtree here is empty.
+         */
+        public int size() {
+            return 0;
+        }
+
         /**
          * The subtree here has 1 black height (the node itself).
          */
@@ -173,6 +206,11 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
         V value;
         Node<K, V> left, right;
         boolean isRed;
+
+        /**
+         * The total number of associations in the subtree rooted here.
+         */
+        int size;
         
         RBNode(K key, V value, Node left, Node right) {
             this.key = key;
@@ -180,9 +218,20 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
             this.left = left;
             this.right = right;
             this.isRed = true;
+            resize();
         }
 
         public boolean isRed() { return isRed; }
+
+        public int size() { return size; }
+
+        /**
+         * Recompute the size recorded here from the children's,
+         * which are assumed to be correct.
+         */
+        private void resize() {
+            size = left.size() + right.size() + 1;
+        }
         
         /**
          * Add an association for a key. Since this might involve a
@@ -190,95 +239,298 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
          * the receiver's place in the tree. If no rotation happens,
          * the returned node will be the receiver; if there is a rotation,
          * the returned node will be whatever node is rotated up.
+         * A double red is not signaled; instead, after each recursive
+         * call this node checks whether the child it got back is red
+         * with a red child, and if so fixes it here, one level up.
          * @param key The key to this association
          * @param val The value to which this key is associated
          * @return The node to stand in this one's place (possibly still this one)
-         * @throws DoubleRedException If the work so far has resulted in two reds.
          */
-        public Node<K, V> put(K key, V val) throws DoubleRedException {
-        	// work begins:
-
-        		int compare = key.compareTo(this.key);
-        		if (compare < 0) {	
-        			// ADDING ON LEFT SIDE:
-        			try {
-        				left = left.put(key, val);
-        			} catch (DoubleRedException dre){
-        				// check the three cases:
-        				RBNode child = (RedBlackTreeMap<K, V>.RBNode) left;
-        				if (child.right.isRed()){
-        					// it's case 2a:
-        					case2aLeftRotate();	
-        				} 
-        				assert(child.left.isRed());
-        				if (right.isRed()){
-        					// it's case 1: 'uncle' case:
-        					return case1Rotate();
-        				} else {
-        					// it's just case 2b:
-        					return case2bLeftRotate();
-        				}
-        			}
-
-        			if (this.isRed() && left.isRed()){
-        				throw new DoubleRedException();
-        			}
-        			return this;
-        		}
-
-        		else if (compare == 0) {
-        			value = val;
-        			return this;
-        		}
-
-        		else { // if (compare > 0) 
-        			// ADDING ON RIGHT SIDE:
-        			try {
-        				right = right.put(key, val);
-        			} catch (DoubleRedException dre){
-        				// check the three cases:
-        				RBNode child = (RedBlackTreeMap<K, V>.RBNode) right;
-        				if (child.left.isRed()){
-        					// it's case 2a:
-        					case2aRightRotate();
-        				} 
-        				assert(child.right.isRed());
-        				if (left.isRed()){
-        					// it's case 1: 'uncle' case:
-        					return case1Rotate();
-        				} else {
-        					// it's just case 2b:
-        					return case2bRightRotate();
-        				}
-        			}
-
-        			if (this.isRed() && right.isRed()){
-        				throw new DoubleRedException();
-        			}
-        			return this;
-        		}
+        public Node<K, V> put(K key, V val) {
+            if (metrics != null)
+                metrics.search(1, 1);
+            int compare = key.compareTo(this.key);
+            if (compare < 0) {
+                // ADDING ON LEFT SIDE:
+                left = left.put(key, val);
+                resize();
+                if (isDoubleRed(left)) {
+                    // check the three cases:
+                    if (right.isRed()) {
+                        // it's case 1: 'uncle' case:
+                        return case1Rotate();
+                    }
+                    if (((RBNode) left).right.isRed()) {
+                        // it's case 2a:
+                        if (metrics != null)
+                            metrics.rotation(TreeMetrics.Rotation.LEFT_RIGHT);
+                        case2aLeftRotate();
+                    }
+                    else if (metrics != null)
+                        metrics.rotation(TreeMetrics.Rotation.RIGHT);
+                    // (now) it's case 2b:
+                    return case2bLeftRotate();
+                }
+                return this;
+            }
+
+            else if (compare == 0) {
+                value = val;
+                return this;
+            }
+
+            else { // if (compare > 0) 
+                // ADDING ON RIGHT SIDE:
+                right = right.put(key, val);
+                resize();
+                if (isDoubleRed(right)) {
+                    // check the three cases:
+                    if (left.isRed()) {
+                        // it's case 1: 'uncle' case:
+                        return case1Rotate();
+                    }
+                    if (((RBNode) right).left.isRed()) {
+                        // it's case 2a:
+                        if (metrics != null)
+                            metrics.rotation(TreeMetrics.Rotation.RIGHT_LEFT);
+                        case2aRightRotate();
+                    }
+                    else if (metrics != null)
+                        metrics.rotation(TreeMetrics.Rotation.LEFT);
+                    // (now) it's case 2b:
+                    return case2bRightRotate();
+                }
+                return this;
+            }
+        }
+        
+        /**
+         * Is this child red, with a red child of its own?
+         * @param child One of this node's children
+         * @return true if there is a double red at child, false otherwise
+         */
+        private boolean isDoubleRed(Node<K, V> child) {
+            if (!child.isRed())
+                return false;
+            RBNode redChild = (RBNode) child;  // nully is never red
+            return redChild.left.isRed() || redChild.right.isRed();
         }
         
+        /**
+         * Remove the association for a key, if any, from the subtree
+         * rooted here. A node with two children takes its in-order
+         * successor's association, and the successor is removed from
+         * the right subtree instead. Removing a black node with no
+         * children shortens the subtree; each ancestor on the way back
+         * up either absorbs the shortage or passes it on.
+         * @param key The key whose association we're removing.
+         * @return The node to stand in this one's place (possibly still this one)
+         */
+        public Node<K, V> remove(K key) {
+            if (metrics != null)
+                metrics.search(1, 1);
+            int compare = key.compareTo(this.key);
+            if (compare < 0) {
+                left = left.remove(key);
+                resize();
+                return shortened ? fixLeftShortage() : this;
+            }
+            else if (compare > 0) {
+                right = right.remove(key);
+                resize();
+                return shortened ? fixRightShortage() : this;
+            }
+            else if (left != nully && right != nully) {
+                RBNode successor = (RBNode) right;
+                int visited = 1;
+                while (successor.left != nully) {
+                    successor = (RBNode) successor.left;
+                    visited++;
+                }
+                // the removal below goes down the same path again
+                if (metrics != null)
+                    metrics.visit(visited, 0);
+                this.key = successor.key;
+                this.value = successor.value;
+                right = right.remove(successor.key);
+                resize();
+                return shortened ? fixRightShortage() : this;
+            }
+            else {
+                // At most one child, which takes this node's place. 
+                // (If there is one, it must be a red leaf.)
+                Node<K, V> child = left != nully ? left : right;
+                if (isRed) 
+                    shortened = false;
+                else if (child.isRed()) {
+                    ((RBNode) child).isRed = false;
+                    shortened = false;
+                    if (metrics != null)
+                        metrics.recolor(1);
+                }
+                else
+                    shortened = true;
+                return child;
+            }
+        }
+
+        /**
+         * Fix this node after its left subtree's black height went 
+         * down by one. The right subtree (the sibling) is then at 
+         * least one black node high, so it is a real node.
+         * @return The node to stand in this one's place
+         */
+        private Node<K, V> fixLeftShortage() {
+            RBNode sibling = (RBNode) right;
+            if (sibling.isRed) {
+                // Rotate the red sibling up; this node is now red, 
+                // with a black sibling, and the cases below finish
+                // the job without passing anything up.
+                if (metrics != null) {
+                    metrics.rotation(TreeMetrics.Rotation.LEFT);
+                    metrics.recolor(2);
+                }
+                right = sibling.left;
+                sibling.left = this;
+                sibling.isRed = false;
+                isRed = true;
+                sibling.left = fixLeftShortage();
+                sibling.resize();
+                shortened = false;
+                return sibling;
+            }
+            if (!sibling.left.isRed() && !sibling.right.isRed()) {
+                // Recolor the sibling; if this node is red, making it
+                // black makes up the difference. Otherwise this whole 
+                // subtree is short and our parent has to deal with it.
+                if (metrics != null)
+                    metrics.recolor(isRed ? 2 : 1);
+                sibling.isRed = true;
+                shortened = !isRed;
+                isRed = false;
+                resize();
+                return this;
+            }
+            if (metrics != null) {
+                // the far nephew and, if this node is red, this node
+                // and the sibling that takes its color change color
+                metrics.recolor(isRed ? 3 : 1);
+                metrics.rotation(sibling.right.isRed() ? 
+                        TreeMetrics.Rotation.LEFT : TreeMetrics.Rotation.RIGHT_LEFT);
+            }
+            if (!sibling.right.isRed()) {
+                // Only the near nephew is red; rotate it up so that
+                // the far nephew is red.
+                if (metrics != null)
+                    metrics.recolor(2);
+                RBNode nephew = (RBNode) sibling.left;
+                sibling.left = nephew.right;
+                nephew.right = sibling;
+                nephew.isRed = false;
+                sibling.isRed = true;
+                sibling.resize();
+                nephew.resize();
+                right = sibling = nephew;
+            }
+            // The far nephew is red: rotate the sibling up into this
+            // node's place and color, making the far nephew black.
+            right = sibling.left;
+            sibling.left = this;
+            sibling.isRed = isRed;
+            isRed = false;
+            ((RBNode) sibling.right).isRed = false;
+            resize();
+            sibling.resize();
+            shortened = false;
+            return sibling;
+        }
+
+        /**
+         * Fix this node after its right subtree's black height went 
+         * down by one. (The mirror image of fixLeftShortage().)
+         * @return The node to stand in this one's place
+         */
+        private Node<K, V> fixRightShortage() {
+            RBNode sibling = (RBNode) left;
+            if (sibling.isRed) {
+                if (metrics != null) {
+                    metrics.rotation(TreeMetrics.Rotation.RIGHT);
+                    metrics.recolor(2);
+                }
+                left = sibling.right;
+                sibling.right = this;
+                sibling.isRed = false;
+                isRed = true;
+                sibling.right = fixRightShortage();
+                sibling.resize();
+                shortened = false;
+                return sibling;
+            }
+            if (!sibling.left.isRed() && !sibling.right.isRed()) {
+                if (metrics != null)
+                    metrics.recolor(isRed ? 2 : 1);
+                sibling.isRed = true;
+                shortened = !isRed;
+                isRed = false;
+                resize();
+                return this;
+            }
+            if (metrics != null) {
+                metrics.recolor(isRed ? 3 : 1);
+                metrics.rotation(sibling.left.isRed() ? 
+                        TreeMetrics.Rotation.RIGHT : TreeMetrics.Rotation.LEFT_RIGHT);
+            }
+            if (!sibling.left.isRed()) {
+                if (metrics != null)
+                    metrics.recolor(2);
+                RBNode nephew = (RBNode) sibling.right;
+                sibling.right = nephew.left;
+                nephew.left = sibling;
+                nephew.isRed = false;
+                sibling.isRed = true;
+                sibling.resize();
+                nephew.resize();
+                left = sibling = nephew;
+            }
+            left = sibling.right;
+            sibling.right = this;
+            sibling.isRed = isRed;
+            isRed = false;
+            ((RBNode) sibling.left).isRed = false;
+            resize();
+            sibling.resize();
+            shortened = false;
+            return sibling;
+        }
+
         /*
          * Helper methods can go here:
          */
         private Node<K,V> case2bRightRotate() {
         	RBNode temp = (RBNode)this.right;
+        	if (metrics != null)
+        		metrics.recolor(2);
         	
         	this.right = temp.left;
         	this.isRed = true;
         	temp.left = this;
         	temp.isRed = false;
+        	this.resize();
+        	temp.resize();
         	return temp;
         }
         
         private Node<K,V> case2bLeftRotate() {
         	RBNode temp = (RBNode)this.left;
+        	if (metrics != null)
+        		metrics.recolor(2);
         	
         	this.left = temp.right;
         	this.isRed = true;
         	temp.right = this;
         	temp.isRed = false;
+        	this.resize();
+        	temp.resize();
         	return temp;
         }
         
@@ -290,6 +542,8 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
 			temp.left = temp3;
 			temp2.right = temp;
 			this.right = temp2;
+			temp.resize();
+			temp2.resize();
         }
         
         private void case2aLeftRotate() {
@@ -300,6 +554,8 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
 			temp.right = temp3;
 			temp2.left = temp;
 			this.left = temp2;
+			temp.resize();
+			temp2.resize();
         }
         
         private Node<K,V> case1Rotate(){
@@ -308,6 +564,8 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
         	RBNode Tleft = (RBNode)left;
         	RBNode Tright = (RBNode)right;
         	
+        	if (metrics != null)
+        		metrics.recolor(3);
         	Tleft.isRed = false;
         	Tright.isRed = false;
         	
@@ -370,12 +628,45 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
      */
     private Node<K, V> root;
 
+    /**
+     * Set by each call to Node.remove() to indicate whether the
+     * subtree it returned has a black height one less than before.
+     */
+    private boolean shortened;
+
+    /**
+     * Set by each call to merge() or join() to the black height of
+     * the subtree it returned (counting its root if black, and
+     * nully as 1).
+     */
+    private int mergedBlackHeight;
+
+    /**
+     * Where to count this tree's work, null if it isn't counted
+     */
+    private TreeMetrics metrics;
+
     /**
      * Constructor to set the root initially to the "null" object
      */
     public RedBlackTreeMap() {
         root = nully;
     }
+
+    /**
+     * Start (or, given null, stop) counting this tree's work.
+     * @param metrics Where to count it
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return Where this tree's work is counted, null if it isn't
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
     
     @Override
     public String toString() {
@@ -389,22 +680,16 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
      */
     public void put(K key, V val) {
         
-        try {
-        	root = root.put(key, val);
-        } catch (DoubleRedException dre) {
-
-            // work begins here:
-        	// simply change the root back to black?
-        	// I can't think of a case when this exception would be called...
-            ((RBNode) root).isRed = false;
-
+        root = root.put(key, val);
 
-        }
-
-        
-        
         // The root is never red. If the previous put resulted
-        // in a red root, we simply make it black.
+        // in a red root (possibly with a red child), we simply 
+        // make it black.
+        if (metrics != null) {
+            if (root.isRed())
+                metrics.recolor(1);
+            metrics.end(TreeMetrics.Operation.PUT);
+        }
         ((RBNode) root).isRed = false;
 
         
@@ -416,13 +701,38 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
             root.blackHeight();
     }
 
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        root = root.remove(key);
+
+        // A shortage at the root shortens every path alike, so 
+        // there is nothing to fix. The root is never red.
+        if (metrics != null) {
+            if (root.isRed())
+                metrics.recolor(1);
+            metrics.end(TreeMetrics.Operation.REMOVE);
+        }
+        if (root != nully)
+            ((RBNode) root).isRed = false;
+
+        if (DEBUG)
+            root.blackHeight();
+    }
+
     /**
      * Get the value for a key.
      * @param key The key whose value we're retrieving.
      * @return The value associated with this key, null if none exists
      */
     public V get(K key) {
-        return root.get(key);
+        if (metrics == null)
+            return root.get(key);
+        RBNode node = countedFind(key);
+        metrics.end(TreeMetrics.Operation.GET);
+        return node == null ? null : node.value;
     }
 
     /**
@@ -431,41 +741,628 @@ public class RedBlackTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
      * @return true if there is an association for this key, false otherwise
      */
     public boolean containsKey(K key) {
-        return root.containsKey(key);
+        if (metrics == null)
+            return root.containsKey(key);
+        RBNode node = countedFind(key);
+        metrics.end(TreeMetrics.Operation.CONTAINS_KEY);
+        return node != null;
     }
 
-    public Iterator<K> iterator() {
-        // The stack contains the left-link lineage of the 
-        // the next node, including the next node itself;
-        // the next node is the top element
-        final Stack<Node<K,V>> st = new ListStack<Node<K,V>>();
-        for (Node<K,V> current = root; current != nully; 
-                current = ((RBNode) current).left)
-            st.push(current);
-
-        return new Iterator<K>() {
-            public boolean hasNext() {
-                return ! st.isEmpty();
+    /**
+     * Look for a key without writing anything, for ConcurrentTreeMap.
+     * @return The key's value, BoundedSearch.NOT_FOUND, or
+     * BoundedSearch.GAVE_UP
+     */
+    public Object search(K key) {
+        RBNode current = child(root);
+        for (int limit = size(); current != null; limit--) {
+            if (limit < 0)
+                return BoundedSearch.GAVE_UP;
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = child(current.left);
+            else if (compare > 0)
+                current = child(current.right);
+            else // if (compare == 0)
+                return current.value;
+        }
+        return BoundedSearch.NOT_FOUND;
+    }
+
+    /**
+     * Find the node with this key, as Node.get() does, counting the
+     * search in the metrics.
+     * @return The node, null if there is none
+     */
+    private RBNode countedFind(K key) {
+        RBNode current = child(root);
+        int visited = 0;
+        while (current != null) {
+            visited++;
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = child(current.left);
+            else if (compare > 0)
+                current = child(current.right);
+            else // if (compare == 0)
+                break;
+        }
+        metrics.search(visited, visited);
+        return current;
+    }
+
+    /**
+     * Cast a link to a real node, or to null if it is the null object.
+     */
+    private RBNode child(Node<K, V> link) {
+        return link == nully ? null : (RBNode) link;
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return root.size();
+    }
+
+    /**
+     * Return the number of keys in this map that are less than
+     * the given key. The key itself need not be in the map.
+     * @param key The key whose rank we're finding
+     * @return The number of keys less than key
+     */
+    public int rank(K key) {
+        int rank = 0;
+        RBNode current = child(root);
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = child(current.left);
+            else if (compare > 0) {
+                // current and everything on its left come before key
+                rank += current.left.size() + 1;
+                current = child(current.right);
+            }
+            else // if (compare == 0)
+                return rank + current.left.size();
+        }
+        return rank;
+    }
+
+    /**
+     * Return the key with the given rank.
+     * If the index is invalid, an IndexOutOfBoundsException is thrown.
+     * @param index The rank of the key to return, from 0 to size() - 1
+     * @return The key with that rank
+     */
+    public K select(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("" + index);
+        RBNode current = (RBNode) root;
+        while (true) {
+            int leftSize = current.left.size();
+            if (index < leftSize)
+                current = (RBNode) current.left;
+            else if (index > leftSize) {
+                index -= leftSize + 1;
+                current = (RBNode) current.right;
+            }
+            else // if (index == leftSize)
+                return current.key;
+        }
+    }
+
+    /**
+     * Return the number of keys in this map that are at least lo
+     * and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The number of keys in [lo, hi)
+     */
+    public int countRange(K lo, K hi) {
+        if (hi.compareTo(lo) <= 0)
+            return 0;
+        return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Return the greatest key in this map that is less than or
+     * equal to the given key.
+     * @param key The key to look below
+     * @return The greatest key not greater than key, null if none exists
+     */
+    public K floorKey(K key) {
+        K best = null;   // the greatest key <= key seen so far
+        RBNode current = child(root);
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0)
+                current = child(current.left);
+            else if (compare > 0) {
+                best = current.key;
+                current = child(current.right);
+            }
+            else // if (compare == 0)
+                return current.key;
+        }
+        return best;
+    }
+
+    /**
+     * Return the least key in this map that is greater than or
+     * equal to the given key.
+     * @param key The key to look above
+     * @return The least key not less than key, null if none exists
+     */
+    public K ceilingKey(K key) {
+        K best = null;   // the least key >= key seen so far
+        RBNode current = child(root);
+        while (current != null) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0) {
+                best = current.key;
+                current = child(current.left);
+            }
+            else if (compare > 0)
+                current = child(current.right);
+            else // if (compare == 0)
+                return current.key;
+        }
+        return best;
+    }
+
+    /**
+     * Add all the associations in these arrays to the map, as if
+     * by putting them one at a time in order.
+     * @param keys The keys, in any order
+     * @param values The values, in the order of their keys
+     */
+    public void putAll(K[] keys, V[] values) {
+        SortedBatch<K, V> batch = new SortedBatch<K, V>(keys, values);
+        root = merge(root, leftBlackHeight(), batch, 0, batch.length);
+        if (root != nully)
+            ((RBNode) root).isRed = false;
+
+        if (DEBUG)
+            root.blackHeight();
+    }
+
+    /**
+     * Merge the batch's associations at positions [lo, hi) into the
+     * subtree rooted at this node. The batch is split around the
+     * node's key and each part is merged into its own side (a part
+     * that reaches an empty spot becomes a balanced subtree there);
+     * then the two sides are joined back together at this node.
+     * Each subtree's black height is handed down and back up, so
+     * that no join has to measure a spine.
+     * @param blackHeight The black height of the subtree
+     * @return The root of the merged subtree, which may be red with
+     * a red child; its black height is left in mergedBlackHeight
+     */
+    private Node<K, V> merge(Node<K, V> node, int blackHeight, SortedBatch<K, V> batch,
+            int lo, int hi) {
+        if (lo == hi) {
+            mergedBlackHeight = blackHeight;
+            return node;
+        }
+        if (node == nully) {
+            // build() leaves every path with one black node per
+            // level above the lowest
+            int height = SortedSource.balancedHeight(hi - lo);
+            mergedBlackHeight = height;
+            return build(batch.source(lo, hi), hi - lo, 0, height - 1);
+        }
+
+        RBNode middle = (RBNode) node;
+        int mid = batch.lowerBound(middle.key, lo, hi), rightStart = mid;
+        if (mid < hi && batch.key(mid).compareTo(middle.key) == 0) {
+            middle.value = batch.value(mid);
+            rightStart = mid + 1;
+        }
+        int childBlackHeight = middle.isRed ? blackHeight : blackHeight - 1;
+        Node<K, V> left = merge(middle.left, childBlackHeight, batch, lo, mid);
+        int leftBlackHeight = mergedBlackHeight;
+        Node<K, V> right = merge(middle.right, childBlackHeight, batch, rightStart, hi);
+        int rightBlackHeight = mergedBlackHeight;
+
+        // If both sides kept their black heights and neither makes
+        // a double red here, they go back as they are, rather than
+        // being rejoined (which would recolor an untouched side).
+        if (leftBlackHeight == childBlackHeight && rightBlackHeight == childBlackHeight
+                && (lo == mid || fitsUnder(middle, left))
+                && (rightStart == hi || fitsUnder(middle, right))) {
+            middle.left = left;
+            middle.right = right;
+            middle.resize();
+            mergedBlackHeight = blackHeight;
+            return middle;
+        }
+        return join(left, leftBlackHeight, middle, right, rightBlackHeight);
+    }
+
+    /**
+     * Whether a subtree that merge() returned can be middle's child
+     * without making a double red
+     */
+    private boolean fitsUnder(RBNode middle, Node<K, V> child) {
+        if (!child.isRed())
+            return true;
+        RBNode red = (RBNode) child;
+        return !middle.isRed && !red.left.isRed() && !red.right.isRed();
+    }
+
+    /**
+     * Join two red-black trees into one, with the middle node 
+     * between them.
+     * PRECONDITION: every key in left is less than middle's key, and
+     * every key in right is greater. Both roots are made black first
+     * (which keeps each a valid red-black tree). Then the shorter
+     * tree is hung, under a red middle, from the spine of the taller 
+     * one at the level with the same black height; a double red that
+     * causes is rotated away at the black node above it.
+     * @param leftBlackHeight The black height of left, as it is given
+     * @param rightBlackHeight The black height of right, as it is given
+     * @return The root of the joined tree; its black height is left
+     * in mergedBlackHeight
+     */
+    private Node<K, V> join(Node<K, V> left, int leftBlackHeight, RBNode middle,
+            Node<K, V> right, int rightBlackHeight) {
+        if (left.isRed()) {
+            ((RBNode) left).isRed = false;
+            leftBlackHeight++;
+        }
+        if (right.isRed()) {
+            ((RBNode) right).isRed = false;
+            rightBlackHeight++;
+        }
+
+        if (leftBlackHeight > rightBlackHeight) {
+            RBNode joined = (RBNode) joinRight(left, leftBlackHeight, middle, right, 
+                    rightBlackHeight);
+            mergedBlackHeight = leftBlackHeight;
+            if (joined.isRed && joined.right.isRed()) {
+                joined.isRed = false;
+                mergedBlackHeight++;
             }
+            return joined;
+        }
+        else if (rightBlackHeight > leftBlackHeight) {
+            RBNode joined = (RBNode) joinLeft(left, middle, right, rightBlackHeight,
+                    leftBlackHeight);
+            mergedBlackHeight = rightBlackHeight;
+            if (joined.isRed && joined.left.isRed()) {
+                joined.isRed = false;
+                mergedBlackHeight++;
+            }
+            return joined;
+        }
+        middle.left = left;
+        middle.right = right;
+        middle.isRed = true;
+        middle.resize();
+        mergedBlackHeight = leftBlackHeight;
+        return middle;
+    }
+
+    /**
+     * Join, when left has the greater black height: go down the
+     * right spine of left to the black node with right's black
+     * height and put a red middle there.
+     * @param blackHeight The black height of left
+     */
+    private Node<K, V> joinRight(Node<K, V> left, int blackHeight, RBNode middle,
+            Node<K, V> right, int rightBlackHeight) {
+        if (!left.isRed() && blackHeight == rightBlackHeight) {
+            middle.left = left;
+            middle.right = right;
+            middle.isRed = true;
+            middle.resize();
+            return middle;
+        }
+        RBNode node = (RBNode) left;
+        node.right = joinRight(node.right, node.isRed ? blackHeight : blackHeight - 1,
+                middle, right, rightBlackHeight);
+        node.resize();
+        if (!node.isRed && node.right.isRed() && ((RBNode) node.right).right.isRed()) {
+            // double red below a black node: rotate the red child
+            // up, and blacken its red child
+            RBNode child = (RBNode) node.right;
+            ((RBNode) child.right).isRed = false;
+            node.right = child.left;
+            child.left = node;
+            node.resize();
+            child.resize();
+            return child;
+        }
+        return node;
+    }
+
+    /**
+     * Join, when right has the greater black height.
+     * (The mirror image of joinRight().)
+     * @param blackHeight The black height of right
+     */
+    private Node<K, V> joinLeft(Node<K, V> left, RBNode middle, Node<K, V> right,
+            int blackHeight, int leftBlackHeight) {
+        if (!right.isRed() && blackHeight == leftBlackHeight) {
+            middle.left = left;
+            middle.right = right;
+            middle.isRed = true;
+            middle.resize();
+            return middle;
+        }
+        RBNode node = (RBNode) right;
+        node.left = joinLeft(left, middle, node.left, 
+                node.isRed ? blackHeight : blackHeight - 1, leftBlackHeight);
+        node.resize();
+        if (!node.isRed && node.left.isRed() && ((RBNode) node.left).left.isRed()) {
+            RBNode child = (RBNode) node.left;
+            ((RBNode) child.left).isRed = false;
+            node.left = child.right;
+            child.right = node;
+            node.resize();
+            child.resize();
+            return child;
+        }
+        return node;
+    }
+
+    /**
+     * Replace the contents of this map with the given associations,
+     * building a balanced tree directly from the sorted input.
+     * @param keys The keys, in increasing order
+     * @param values The values, in the order of their keys
+     * @param n The number of associations to take from the iterators
+     */
+    public void loadSorted(Iterator<? extends K> keys, Iterator<? extends V> values, int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("" + n);
+        // build the whole tree before replacing anything, in case 
+        // the input turns out to be out of order
+        Node<K, V> built = build(new SortedSource<K, V>(keys, values), n, 
+                0, SortedSource.balancedHeight(n) - 1);
+        if (built != nully)
+            ((RBNode) built).isRed = false;
+        root = built;
+
+        if (DEBUG)
+            root.blackHeight();
+    }
+
+    /**
+     * Build a tree from the next n associations of the source, with
+     * the middle one at the root and each half built the same way
+     * below it. Every empty subtree of such a tree is at one of the
+     * two lowest levels, so coloring the nodes on the lowest level
+     * red and all the others black gives every path the same number
+     * of black nodes, with no red node having a red child.
+     * @param depth The depth of the subtree being built
+     * @param redDepth The depth of the lowest level
+     * @return The root of the new tree, nully if n is 0
+     */
+    private Node<K, V> build(SortedSource<K, V> source, int n, int depth, int redDepth) {
+        if (n == 0)
+            return nully;
+        int leftCount = (n - 1) / 2;
+        Node<K, V> left = build(source, leftCount, depth + 1, redDepth);
+        K key = source.nextKey();
+        V value = source.nextValue();
+        Node<K, V> right = build(source, n - 1 - leftCount, depth + 1, redDepth);
+        RBNode node = new RBNode(key, value, left, right);
+        node.isRed = depth == redDepth;
+        return node;
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order.
+     * This performs an in-order depth-first traversal.
+     * @return The iterator 
+     */
+    public Iterator<K> iterator() {
+        return new RangeIterator(null, null);
+    }
+
+    /**
+     * How the spliterators and bulk operations get around this
+     * tree's nodes (with null, rather than nully, for a missing child)
+     */
+    private final TreeTasks.Access<RBNode, K, V> shape = new TreeTasks.Access<RBNode, K, V>() {
+        public RBNode left(RBNode node) {
+            return child(node.left);
+        }
 
-            public K next() {
-                if (st.isEmpty())
-                    throw new NoSuchElementException();
-                else {
-                    RBNode nextNode = (RBNode) st.pop();
-                    for (Node<K,V> current = nextNode.right; current != nully; 
-                            current = ((RBNode) current).left)
-                        st.push(current);
-                    return nextNode.key;
+        public RBNode right(RBNode node) {
+            return child(node.right);
+        }
+
+        public int size(RBNode node) {
+            return node == null ? 0 : node.size;
+        }
+
+        public K key(RBNode node) {
+            return node.key;
+        }
+
+        public V value(RBNode node) {
+            return node.value;
+        }
+
+        public void setValue(RBNode node, V value) {
+            node.value = value;
+        }
+    };
+
+    /**
+     * Spliterator over the keys in sorted order, which splits by
+     * subtree, so that keys().parallel() can divide the tree among
+     * threads.
+     * @return The spliterator
+     */
+    public Spliterator<K> spliterator() {
+        return new TreeSpliterator<RBNode, K>(shape, child(root), node -> node.key, null);
+    }
+
+    /**
+     * A stream of the associations in order of their keys, which,
+     * unlike the default, reads each value from its node and can be
+     * split by subtree for parallel streams.
+     * @return The stream
+     */
+    public Stream<java.util.Map.Entry<K, V>> entries() {
+        Spliterator<java.util.Map.Entry<K, V>> entries = 
+                new TreeSpliterator<RBNode, java.util.Map.Entry<K, V>>(shape, child(root),
+                        node -> new AbstractMap.SimpleImmutableEntry<K, V>(node.key, node.value),
+                        java.util.Map.Entry.<K, V>comparingByKey());
+        return StreamSupport.stream(entries, false);
+    }
+
+    /**
+     * Apply the action to every association, on several threads.
+     * @param action What to do with each key and its value
+     */
+    public void forEachParallel(BiConsumer<? super K, ? super V> action) {
+        TreeTasks.forEach(shape, child(root), action);
+    }
+
+    /**
+     * Combine all the values, in key order, on several threads.
+     * @param identity The result for an empty map
+     * @param op How to combine two values
+     * @return The combination of all the values
+     */
+    public V reduceValues(V identity, BinaryOperator<V> op) {
+        return TreeTasks.reduceValues(shape, child(root), identity, op);
+    }
+
+    /**
+     * Replace every value in place, on several threads.
+     * The shape of the tree doesn't change.
+     * @param fn Computes the new value for each key and old value
+     */
+    public void replaceAllValues(BiFunction<? super K, ? super V, ? extends V> fn) {
+        TreeTasks.replaceAll(shape, child(root), fn);
+    }
+
+    /**
+     * An immutable copy of this map laid out for fast searching.
+     * @return The frozen map
+     */
+    public EytzingerMap<K, V> freeze() {
+        return new EytzingerMap<K, V>(entries().iterator(), size());
+    }
+
+    /**
+     * Report on the shape of this tree, including its black height,
+     * visiting every node.
+     * @return The report
+     */
+    public ShapeStats shapeStats() {
+        return ShapeStats.measure(shape, child(root), null, leftBlackHeight());
+    }
+
+    /**
+     * Report on the shape of this tree from the depths of randomly
+     * chosen keys, which takes time proportional to samples times
+     * the depth of the tree rather than to its size.
+     * @param samples The number of keys to choose
+     * @param random Where to get the random choices
+     * @return The report
+     */
+    public ShapeStats shapeStats(int samples, Random random) {
+        return ShapeStats.sample(shape, child(root), samples, random, null, leftBlackHeight());
+    }
+
+    /**
+     * The number of black nodes on the leftmost path, counting the
+     * null object at the end as blackHeight() does. Unlike
+     * blackHeight(), this doesn't check that every path agrees.
+     */
+    private int leftBlackHeight() {
+        int blackHeight = 1;
+        for (RBNode current = child(root); current != null; current = child(current.left))
+            if (! current.isRed)
+                blackHeight++;
+        return blackHeight;
+    }
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least lo and less than hi.
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The iterator
+     */
+    public Iterator<K> range(K lo, K hi) {
+        return new RangeIterator(lo, hi);
+    }
+
+    /**
+     * Iterator that returns, in sorted order, the keys that are at
+     * least the given key.
+     * @param from The key to start from (inclusive)
+     * @return The iterator
+     */
+    public Iterator<K> tailIterator(K from) {
+        return new RangeIterator(from, null);
+    }
+
+    /**
+     * An in-order depth-first traversal of the keys from lo 
+     * (inclusive) up to hi (exclusive), where a null bound means
+     * there is no bound on that side.
+     */
+    private class RangeIterator implements Iterator<K> {
+
+        /**
+         * The stack contains the nodes on the route from the root 
+         * to the next node where we went left (that is, the nodes
+         * still to be visited, each followed by its right subtree),
+         * including the next node itself; the next node is the top
+         * element. So it never holds more than the height of the tree.
+         */
+        private final Stack<Node<K,V>> st = new ArrayStack<Node<K,V>>();
+
+        /**
+         * The key to stop before, if any
+         */
+        private final K hi;
+
+        RangeIterator(K lo, K hi) {
+            this.hi = hi;
+            // Search for lo, pushing only the nodes we go left from 
+            // (the ones whose keys are at least lo).
+            Node<K,V> current = root;
+            while (current != nully) {
+                if (lo == null || lo.compareTo(((RBNode) current).key) <= 0) {
+                    st.push(current);
+                    current = ((RBNode) current).left;
                 }
+                else
+                    current = ((RBNode) current).right;
             }
+        }
+
+        public boolean hasNext() {
+            return ! st.isEmpty() && 
+                    (hi == null || ((RBNode) st.top()).key.compareTo(hi) < 0);
+        }
 
-            public void remove() {
-                throw new UnsupportedOperationException();
+        public K next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            else {
+                RBNode nextNode = (RBNode) st.pop();
+                for (Node<K,V> current = nextNode.right; current != nully; 
+                        current = ((RBNode) current).left)
+                    st.push(current);
+                return nextNode.key;
             }
-            
-        };
-        
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
 }
@@ -0,0 +1,259 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * ShapeStats
+ *
+ * A report on the shape of a tree map: how many nodes it has, how
+ * deep its keys are (the average, the greatest, and how many are at
+ * each depth), and, for the kinds of tree that keep them, the black
+ * height or how many nodes have each balance factor. Unlike the
+ * trees' debugging checks, making a report never throws; a tree that
+ * has gone wrong shows up in the numbers.
+ *
+ * The depth of a key is the number of nodes from the root down to
+ * the key's node, counting both, so the root's key is at depth 1 and
+ * the height of the tree is the greatest depth (as AVLTreeMap counts
+ * heights, and as TreeMetrics counts path lengths).
+ *
+ * A full report visits every node. A sampled report instead picks
+ * keys uniformly at random (by rank, using the subtree sizes) and
+ * finds only their depths, so it costs the number of samples times
+ * the depth. Its averages and proportions are estimates, and its
+ * height is the greatest depth among the samples, which is at most
+ * the tree's height.
+ */
+
+public final class ShapeStats {
+
+    /**
+     * What blackHeight() returns for trees that don't have one
+     */
+    public static final int NONE = -1;
+
+    private final int nodeCount;
+
+    private final int samples;
+
+    private final boolean sampled;
+
+    /**
+     * depthCounts[d] is the number of keys (or samples) at depth d
+     */
+    private final long[] depthCounts;
+
+    private final int blackHeight;
+
+    /**
+     * The number of nodes (or samples) with each balance factor,
+     * null if the tree doesn't keep balance factors
+     */
+    private final SortedMap<Integer, Long> balanceCounts;
+
+    private ShapeStats(int nodeCount, int samples, boolean sampled, long[] depthCounts,
+            int blackHeight, SortedMap<Integer, Long> balanceCounts) {
+        this.nodeCount = nodeCount;
+        this.samples = samples;
+        this.sampled = sampled;
+        this.depthCounts = depthCounts;
+        this.blackHeight = blackHeight;
+        this.balanceCounts = balanceCounts == null ? null : Collections.unmodifiableSortedMap(balanceCounts);
+    }
+
+    /**
+     * Make a full report on a tree by visiting every node.
+     * @param shape How to get around the tree
+     * @param root The root, null if the tree is empty
+     * @param balance Gives each node's balance factor; null if the
+     * tree doesn't keep them
+     * @param blackHeight The tree's black height, or NONE
+     * @return The report
+     */
+    static <N> ShapeStats measure(TreeSpliterator.Shape<N> shape, N root,
+            ToIntFunction<N> balance, int blackHeight) {
+        Tally tally = new Tally(balance != null);
+        ArrayStack<N> nodes = new ArrayStack<N>();
+        ArrayStack<Integer> depths = new ArrayStack<Integer>();
+        if (root != null) {
+            nodes.push(root);
+            depths.push(1);
+        }
+        while (! nodes.isEmpty()) {
+            N node = nodes.pop();
+            int depth = depths.pop();
+            tally.add(depth, balance == null ? 0 : balance.applyAsInt(node));
+            N left = shape.left(node), right = shape.right(node);
+            if (left != null) {
+                nodes.push(left);
+                depths.push(depth + 1);
+            }
+            if (right != null) {
+                nodes.push(right);
+                depths.push(depth + 1);
+            }
+        }
+        return tally.finish(shape.size(root), false, blackHeight);
+    }
+
+    /**
+     * Make a sampled report on a tree.
+     * @param shape How to get around the tree
+     * @param root The root, null if the tree is empty
+     * @param samples The number of keys to pick (with replacement)
+     * @param random Where to get the random ranks
+     * @param balance Gives each node's balance factor; null if the
+     * tree doesn't keep them
+     * @param blackHeight The tree's black height, or NONE
+     * @return The report
+     */
+    static <N> ShapeStats sample(TreeSpliterator.Shape<N> shape, N root, int samples,
+            Random random, ToIntFunction<N> balance, int blackHeight) {
+        if (samples < 1)
+            throw new IllegalArgumentException("" + samples);
+        Tally tally = new Tally(balance != null);
+        int n = shape.size(root);
+        for (int i = 0; i < samples && n > 0; i++) {
+            // go down to the node of a random rank, as select() does
+            int index = random.nextInt(n), depth = 1;
+            N current = root;
+            while (true) {
+                int leftSize = shape.size(shape.left(current));
+                if (index < leftSize)
+                    current = shape.left(current);
+                else if (index > leftSize) {
+                    index -= leftSize + 1;
+                    current = shape.right(current);
+                }
+                else
+                    break;
+                depth++;
+            }
+            tally.add(depth, balance == null ? 0 : balance.applyAsInt(current));
+        }
+        return tally.finish(n, true, blackHeight);
+    }
+
+    /**
+     * The depths (and balance factors) seen so far
+     */
+    private static class Tally {
+        private long[] depthCounts = new long[32];
+        private int count, height;
+        private final SortedMap<Integer, Long> balanceCounts;
+
+        Tally(boolean balances) {
+            balanceCounts = balances ? new TreeMap<Integer, Long>() : null;
+        }
+
+        void add(int depth, int balance) {
+            if (depth >= depthCounts.length)
+                depthCounts = Arrays.copyOf(depthCounts, 2 * depth);
+            depthCounts[depth]++;
+            height = Math.max(height, depth);
+            count++;
+            if (balanceCounts != null)
+                balanceCounts.merge(balance, 1L, Long::sum);
+        }
+
+        ShapeStats finish(int nodeCount, boolean sampled, int blackHeight) {
+            return new ShapeStats(nodeCount, count, sampled, Arrays.copyOf(depthCounts, height + 1),
+                    blackHeight, balanceCounts);
+        }
+    }
+
+    /**
+     * @return The number of keys in the tree (exactly, even for a
+     * sampled report)
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return Whether this report was made from samples
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return The number of keys whose depths were found: all of
+     * them for a full report
+     */
+    public int samples() {
+        return samples;
+    }
+
+    /**
+     * @return The height of the tree, 0 if it is empty (for a
+     * sampled report, the greatest depth sampled)
+     */
+    public int height() {
+        return depthCounts.length - 1;
+    }
+
+    /**
+     * @return The greatest depth of a key; the same as height()
+     */
+    public int maxDepth() {
+        return height();
+    }
+
+    /**
+     * @return The mean depth of the keys, 0 if there are none
+     */
+    public double averageDepth() {
+        long total = 0;
+        for (int depth = 1; depth < depthCounts.length; depth++)
+            total += depth * depthCounts[depth];
+        return samples == 0 ? 0 : (double) total / samples;
+    }
+
+    /**
+     * @return An array whose element d is the number of keys (or
+     * samples) at depth d, from 0 (always 0) to the height
+     */
+    public long[] depthHistogram() {
+        return depthCounts.clone();
+    }
+
+    /**
+     * @return The height of a red-black tree counted in black nodes
+     * (including the null leaf), along its leftmost path; NONE for
+     * other trees
+     */
+    public int blackHeight() {
+        return blackHeight;
+    }
+
+    /**
+     * @return For each balance factor (left height minus right height)
+     * found, the number of nodes (or samples) with it; null for trees
+     * that don't keep balance factors
+     */
+    public SortedMap<Integer, Long> balanceFactors() {
+        return balanceCounts;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(nodeCount).append(" nodes");
+        if (sampled)
+            sb.append(" (").append(samples).append(" sampled)");
+        sb.append(", height ").append(height())
+            .append(String.format(", average depth %.2f", averageDepth()))
+            .append(", depths ").append(Arrays.toString(depthCounts));
+        if (blackHeight != NONE)
+            sb.append(", black height ").append(blackHeight);
+        if (balanceCounts != null)
+            sb.append(", balance factors ").append(balanceCounts);
+        return sb.toString();
+    }
+}
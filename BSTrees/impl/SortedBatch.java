@@ -0,0 +1,95 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * SortedBatch
+ *
+ * A batch of associations to be put into a tree all at once, sorted
+ * by key. If a key appears more than once in the batch, the last
+ * value given for it wins, just as if the associations had been put
+ * one at a time. The trees merge a batch in by splitting it around
+ * the key at each node they visit, so this also provides the binary
+ * search for that split.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+class SortedBatch<K extends Comparable<K>, V> {
+
+    private final K[] keys;
+
+    private final V[] values;
+
+    /**
+     * The number of distinct keys in the batch
+     */
+    final int length;
+
+    SortedBatch(final K[] keys, V[] values) {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException(keys.length + " keys but "
+                    + values.length + " values");
+
+        // Sort the positions by key; the sort is stable, so among
+        // equal keys the one given last stays last.
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i, Integer j) {
+                return keys[i].compareTo(keys[j]);
+            }
+        });
+
+        this.keys = Arrays.copyOf(keys, keys.length);
+        this.values = Arrays.copyOf(values, values.length);
+        int distinct = 0;
+        for (int i = 0; i < order.length; i++) {
+            K key = keys[order[i]];
+            if (distinct > 0 && this.keys[distinct - 1].compareTo(key) == 0)
+                this.values[distinct - 1] = values[order[i]];
+            else {
+                this.keys[distinct] = key;
+                this.values[distinct] = values[order[i]];
+                distinct++;
+            }
+        }
+        length = distinct;
+    }
+
+    K key(int index) {
+        return keys[index];
+    }
+
+    V value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Find the first position in [lo, hi) whose key is not less than
+     * the given key, or hi if there is none. So the batch's keys in
+     * [lo, result) are all less than key.
+     */
+    int lowerBound(K key, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The associations at positions [lo, hi), as a source for building
+     * a new subtree.
+     */
+    SortedSource<K, V> source(int lo, int hi) {
+        return new SortedSource<K, V>(Arrays.asList(keys).subList(lo, hi).iterator(),
+                Arrays.asList(values).subList(lo, hi).iterator());
+    }
+}
@@ -0,0 +1,69 @@
+package impl;
+
+import java.util.Iterator;
+
+/**
+ * SortedSource
+ *
+ * The keys and values a tree is being built from, in sorted order.
+ * The trees' bulk-building code takes keys and values from here
+ * one at a time, in order, and this makes sure the keys really are
+ * in strictly increasing order as they go by.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+class SortedSource<K extends Comparable<K>, V> {
+
+    private final Iterator<? extends K> keys;
+
+    private final Iterator<? extends V> values;
+
+    /**
+     * The most recent key taken, if any
+     */
+    private K last;
+
+    SortedSource(Iterator<? extends K> keys, Iterator<? extends V> values) {
+        this.keys = keys;
+        this.values = values;
+        this.last = null;
+    }
+
+    /**
+     * Take the next key.
+     * @return The next key
+     * @throws IllegalArgumentException if the key is not greater
+     * than the one before it
+     * @throws NoSuchElementException if the keys have run out
+     */
+    K nextKey() {
+        K key = keys.next();
+        if (last != null && last.compareTo(key) >= 0)
+            throw new IllegalArgumentException("keys out of order: " + last
+                    + " then " + key);
+        last = key;
+        return key;
+    }
+
+    /**
+     * Take the next value.
+     * @return The next value
+     * @throws NoSuchElementException if the values have run out
+     */
+    V nextValue() {
+        return values.next();
+    }
+
+    /**
+     * The height of a tree of n nodes built by splitting the keys
+     * down the middle at each node, which is as low as a binary
+     * tree of n nodes can be.
+     * @param n The number of nodes
+     * @return The number of levels in the tree
+     */
+    static int balancedHeight(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+}
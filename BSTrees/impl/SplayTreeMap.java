@@ -0,0 +1,249 @@
+package impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adt.Map;
+import adt.Stack;
+
+/**
+ * SplayTreeMap
+ *
+ * An implementation of a map as a splay tree (Sleator and Tarjan).
+ * Every operation, including get() and containsKey(), ends by
+ * splaying: rotating the node it reached up to the root. Keys that
+ * are used often therefore stay near the top, and a run of accesses
+ * to a small set of hot keys costs little more than the depth of
+ * that set, however large the map is. Any sequence of m operations
+ * takes O(m log n) time in all, though a single one can take O(n).
+ *
+ * The splaying is top-down: one pass from the root splits the tree
+ * into the keys less than the search key and the keys greater than
+ * it, hanging them off a header node, and then reassembles them
+ * under the last node reached. Nodes keep no balance information or
+ * subtree size, so a node is just a key, a value, and two links.
+ *
+ * Since lookups change the tree, this map is not safe even for
+ * concurrent readers. Nor is an iterator safe across a lookup: what
+ * it returns after a get() or containsKey() is undefined, since the
+ * splay relinks the nodes it has stacked, and it may skip or repeat
+ * keys without any error.
+ *
+ * @param <K> The key-type of the map
+ * @param <V> The value-type of the map
+ */
+
+public class SplayTreeMap<K extends Comparable<K>, V> implements Map<K, V> {
+
+    private class Node {
+        K key;
+        V value;
+        Node left, right;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private Node root;
+
+    private int size;
+
+    /**
+     * Scratch node for splay(): its right link collects the tree of
+     * smaller keys and its left link the tree of greater keys.
+     */
+    private final Node header = new Node(null, null);
+
+    public SplayTreeMap() {
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * Splay the tree for this key: make the root the node with this
+     * key, if there is one, or else the last node on the search path
+     * for it (the node with the next key above or below it).
+     * PRECONDITION: the tree is not empty.
+     * @param key The key to splay for
+     */
+    private void splay(K key) {
+        Node current = root,
+                less = header,     // greatest node of the smaller tree
+                greater = header;  // least node of the greater tree
+        header.left = header.right = null;
+        while (true) {
+            int compare = key.compareTo(current.key);
+            if (compare < 0) {
+                if (current.left == null)
+                    break;
+                if (key.compareTo(current.left.key) < 0) {
+                    // zig-zig: rotate right before linking
+                    Node child = current.left;
+                    current.left = child.right;
+                    child.right = current;
+                    current = child;
+                    if (current.left == null)
+                        break;
+                }
+                // current and its right subtree are all greater
+                greater.left = current;
+                greater = current;
+                current = current.left;
+            }
+            else if (compare > 0) {
+                if (current.right == null)
+                    break;
+                if (key.compareTo(current.right.key) > 0) {
+                    // zag-zag: rotate left before linking
+                    Node child = current.right;
+                    current.right = child.left;
+                    child.left = current;
+                    current = child;
+                    if (current.right == null)
+                        break;
+                }
+                // current and its left subtree are all smaller
+                less.right = current;
+                less = current;
+                current = current.right;
+            }
+            else // if (compare == 0)
+                break;
+        }
+        // reassemble: current's subtrees go to the ends of the two
+        // trees, which then become current's subtrees
+        less.right = current.left;
+        greater.left = current.right;
+        current.left = header.right;
+        current.right = header.left;
+        header.left = header.right = null;
+        root = current;
+    }
+
+    /**
+     * Add an association to the map.
+     * @param key The key to this association
+     * @param val The value to which this key is associated
+     */
+    public void put(K key, V val) {
+        if (root == null) {
+            root = new Node(key, val);
+            size = 1;
+            return;
+        }
+        splay(key);
+        int compare = key.compareTo(root.key);
+        if (compare == 0) {
+            root.value = val;
+            return;
+        }
+        // the root is next to key, so it and one of its subtrees
+        // go on one side of the new root
+        Node node = new Node(key, val);
+        if (compare < 0) {
+            node.left = root.left;
+            node.right = root;
+            root.left = null;
+        }
+        else {
+            node.right = root.right;
+            node.left = root;
+            root.right = null;
+        }
+        root = node;
+        size++;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key whose value we're retrieving.
+     * @return The value associated with this key, null if none exists
+     */
+    public V get(K key) {
+        if (root == null)
+            return null;
+        splay(key);
+        return key.compareTo(root.key) == 0 ? root.value : null;
+    }
+
+    /**
+     * Test if this map contains an association for this key.
+     * @param key The key to test.
+     * @return true if there is an association for this key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        if (root == null)
+            return false;
+        splay(key);
+        return key.compareTo(root.key) == 0;
+    }
+
+    /**
+     * Remove the association for this key, if any.
+     * @param key The key whose association we're removing.
+     */
+    public void remove(K key) {
+        if (root == null)
+            return;
+        splay(key);
+        if (key.compareTo(root.key) != 0)
+            return;
+        if (root.left == null)
+            root = root.right;
+        else {
+            // Splaying the left subtree for key brings its greatest
+            // key to its root, which then has no right child.
+            Node right = root.right;
+            root = root.left;
+            splay(key);
+            root.right = right;
+        }
+        size--;
+    }
+
+    /**
+     * Return the number of associations in this map.
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Iterator that returns the keys in sorted order. Iterating
+     * doesn't splay, but any lookup or change made before the
+     * iteration ends leaves the rest of it undefined.
+     * @return The iterator
+     */
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            /**
+             * The nodes whose keys are still to come and whose left
+             * subtrees have been pushed; the next key is on top.
+             */
+            private final Stack<Node> pending = new ArrayStack<Node>();
+            {
+                pushLeftPath(root);
+            }
+
+            private void pushLeftPath(Node node) {
+                for (; node != null; node = node.left)
+                    pending.push(node);
+            }
+
+            public boolean hasNext() {
+                return ! pending.isEmpty();
+            }
+
+            public K next() {
+                if (pending.isEmpty())
+                    throw new NoSuchElementException();
+                Node node = pending.pop();
+                pushLeftPath(node.right);
+                return node.key;
+            }
+        };
+    }
+}
@@ -0,0 +1,244 @@
+package impl;
+
+import java.util.Arrays;
+
+/**
+ * TreeMetrics
+ *
+ * Counts of the work the tree maps do: for each kind of operation,
+ * how many there were, how many keys were compared and how many
+ * nodes were visited in all, and how long the search paths were;
+ * and how many rotations (by kind) and recolorings rebalancing took.
+ * A tree counts only once it has been given a TreeMetrics with
+ * setMetrics(); until then it checks for one once per search and
+ * does nothing else, so metrics cost next to nothing when they are
+ * off.
+ *
+ * What is counted:
+ * - comparisons: calls to compareTo() while going down the tree
+ * - nodes visited: every node a search, a walk to a successor, or a
+ *   rebalancing pass back up the tree looked at, counting a node
+ *   again each time it is looked at again
+ * - path length: the number of nodes from the root down to the node
+ *   the operation was after (the key's node, the node under which
+ *   it would go, or, for removing a key whose node has two
+ *   children, the successor whose association replaces it)
+ * - rotations: single rotations LEFT and RIGHT; and double ones,
+ *   LEFT_RIGHT (a left rotation at a node's left child and then a
+ *   right rotation at the node) and RIGHT_LEFT, each counted once
+ * - recolorings: red-black nodes whose color changed
+ *
+ * Like the trees, this is not safe to use from several threads at
+ * once. One TreeMetrics can be shared by several trees to count
+ * their work together.
+ */
+
+public final class TreeMetrics {
+
+    public enum Operation { GET, CONTAINS_KEY, PUT, REMOVE }
+
+    public enum Rotation { LEFT, RIGHT, LEFT_RIGHT, RIGHT_LEFT }
+
+    private static final int OPERATIONS = Operation.values().length;
+
+    private final long[] operations = new long[OPERATIONS];
+    private final long[] comparisons = new long[OPERATIONS];
+    private final long[] nodesVisited = new long[OPERATIONS];
+    private final long[] pathLengths = new long[OPERATIONS];
+    private final int[] maxPathLengths = new int[OPERATIONS];
+
+    private final long[] rotations = new long[Rotation.values().length];
+
+    private long recolors;
+
+    /**
+     * The counts for the operation under way, added to the totals
+     * by end()
+     */
+    private int pendingComparisons, pendingVisited, pendingPath;
+
+    /**
+     * Count a stretch of the current operation's search path.
+     * @param nodes The number of nodes gone down through
+     * @param compares The number of compareTo() calls made on the way
+     */
+    void search(int nodes, int compares) {
+        pendingPath += nodes;
+        pendingVisited += nodes;
+        pendingComparisons += compares;
+    }
+
+    /**
+     * Count nodes the current operation visited off its search path,
+     * such as on the way back up to rebalance.
+     * @param nodes The number of nodes
+     * @param compares The number of compareTo() calls made at them
+     */
+    void visit(int nodes, int compares) {
+        pendingVisited += nodes;
+        pendingComparisons += compares;
+    }
+
+    void rotation(Rotation kind) {
+        rotations[kind.ordinal()]++;
+    }
+
+    void recolor(int nodes) {
+        recolors += nodes;
+    }
+
+    /**
+     * Finish counting an operation.
+     * @param op What kind it was
+     */
+    void end(Operation op) {
+        int i = op.ordinal();
+        operations[i]++;
+        comparisons[i] += pendingComparisons;
+        nodesVisited[i] += pendingVisited;
+        pathLengths[i] += pendingPath;
+        if (pendingPath > maxPathLengths[i])
+            maxPathLengths[i] = pendingPath;
+        pendingComparisons = pendingVisited = pendingPath = 0;
+    }
+
+    /**
+     * Set all the counts back to zero.
+     */
+    public void reset() {
+        Arrays.fill(operations, 0);
+        Arrays.fill(comparisons, 0);
+        Arrays.fill(nodesVisited, 0);
+        Arrays.fill(pathLengths, 0);
+        Arrays.fill(maxPathLengths, 0);
+        Arrays.fill(rotations, 0);
+        recolors = 0;
+        pendingComparisons = pendingVisited = pendingPath = 0;
+    }
+
+    /**
+     * Copy the counts as they are now.
+     * @return The copy, which later counting doesn't change
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * TreeMetrics.Snapshot
+     *
+     * The counts of a TreeMetrics at one moment, for reporting.
+     */
+    public static final class Snapshot {
+        private final long[] operations, comparisons, nodesVisited, pathLengths, rotations;
+        private final int[] maxPathLengths;
+        private final long recolors;
+
+        private Snapshot(TreeMetrics metrics) {
+            operations = metrics.operations.clone();
+            comparisons = metrics.comparisons.clone();
+            nodesVisited = metrics.nodesVisited.clone();
+            pathLengths = metrics.pathLengths.clone();
+            maxPathLengths = metrics.maxPathLengths.clone();
+            rotations = metrics.rotations.clone();
+            recolors = metrics.recolors;
+        }
+
+        private static long sum(long[] counts) {
+            long sum = 0;
+            for (long count : counts)
+                sum += count;
+            return sum;
+        }
+
+        /**
+         * @param op A kind of operation
+         * @return The number of operations of that kind
+         */
+        public long operations(Operation op) {
+            return operations[op.ordinal()];
+        }
+
+        /**
+         * @return The number of operations of all kinds
+         */
+        public long operations() {
+            return sum(operations);
+        }
+
+        /**
+         * @param op A kind of operation
+         * @return The number of key comparisons those operations made
+         */
+        public long comparisons(Operation op) {
+            return comparisons[op.ordinal()];
+        }
+
+        public long comparisons() {
+            return sum(comparisons);
+        }
+
+        /**
+         * @param op A kind of operation
+         * @return The number of nodes those operations visited
+         */
+        public long nodesVisited(Operation op) {
+            return nodesVisited[op.ordinal()];
+        }
+
+        public long nodesVisited() {
+            return sum(nodesVisited);
+        }
+
+        /**
+         * @param op A kind of operation
+         * @return The mean length of those operations' search paths,
+         * 0 if there were none
+         */
+        public double averagePathLength(Operation op) {
+            long count = operations[op.ordinal()];
+            return count == 0 ? 0 : (double) pathLengths[op.ordinal()] / count;
+        }
+
+        /**
+         * @param op A kind of operation
+         * @return The longest of those operations' search paths
+         */
+        public int maxPathLength(Operation op) {
+            return maxPathLengths[op.ordinal()];
+        }
+
+        /**
+         * @param kind A kind of rotation
+         * @return The number of rotations of that kind
+         */
+        public long rotations(Rotation kind) {
+            return rotations[kind.ordinal()];
+        }
+
+        public long rotations() {
+            return sum(rotations);
+        }
+
+        public long recolors() {
+            return recolors;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Operation op : Operation.values())
+                if (operations(op) > 0)
+                    sb.append(op).append(": ").append(operations(op))
+                        .append(" ops, ").append(comparisons(op)).append(" comparisons, ")
+                        .append(nodesVisited(op)).append(" nodes visited, path length ")
+                        .append(String.format("%.2f", averagePathLength(op)))
+                        .append(" average, ").append(maxPathLength(op)).append(" max\n");
+            sb.append("rotations:");
+            for (Rotation kind : Rotation.values())
+                sb.append(' ').append(kind).append('=').append(rotations(kind));
+            sb.append(", recolors: ").append(recolors);
+            return sb.toString();
+        }
+    }
+}
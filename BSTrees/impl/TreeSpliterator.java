@@ -0,0 +1,198 @@
+package impl;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * TreeSpliterator
+ *
+ * A Spliterator over the nodes of a binary search tree, in order,
+ * that splits by subtree, so that a parallel stream can hand the
+ * halves of the tree to different threads. It covers one node (the
+ * head, if any) followed by every node of one subtree (sub), where
+ * the head comes before everything in the subtree. Splitting gives
+ * the head and sub's left subtree to the new spliterator and keeps
+ * sub and its right subtree, so each split costs constant time and
+ * the pieces are the tree's own subtrees.
+ *
+ * Every node knows the size of its subtree, so the sizes of both
+ * pieces are exact (SIZED and SUBSIZED). Once traversal has started
+ * the spliterator no longer splits.
+ *
+ * Like the trees' iterators, this assumes the tree is not changed
+ * while it is in use.
+ *
+ * @param <N> The node-type of the tree
+ * @param <T> The type of element made from each node
+ */
+
+class TreeSpliterator<N, T> implements Spliterator<T> {
+
+    /**
+     * How to get around the nodes of a particular tree.
+     * @param <N> The node-type of the tree
+     */
+    interface Shape<N> {
+        /**
+         * @return The node's left child, null if none
+         */
+        N left(N node);
+
+        /**
+         * @return The node's right child, null if none
+         */
+        N right(N node);
+
+        /**
+         * @return The number of nodes in the subtree rooted at
+         * node, 0 if node is null
+         */
+        int size(N node);
+    }
+
+    private final Shape<N> shape;
+
+    /**
+     * Makes the element handed out for each node
+     */
+    private final Function<? super N, ? extends T> element;
+
+    /**
+     * The order of the elements, null if it's their natural order
+     */
+    private final Comparator<? super T> comparator;
+
+    /**
+     * The node to visit first, if any
+     */
+    private N head;
+
+    /**
+     * The subtree whose nodes are to be visited after head
+     */
+    private N sub;
+
+    /**
+     * Once traversal starts, the nodes of sub still to be visited,
+     * each followed by its right subtree, with the next one on top
+     * (as in the trees' iterators); null until then.
+     */
+    private ArrayStack<N> st;
+
+    /**
+     * Once traversal starts, the number of nodes still to be visited
+     */
+    private long remaining;
+
+    /**
+     * Make a spliterator over all of a tree.
+     * @param shape How to get around the tree's nodes
+     * @param root The root of the tree, null if it's empty
+     * @param element Makes the element for each node
+     * @param comparator The order of the elements, null if it's
+     * their natural order
+     */
+    TreeSpliterator(Shape<N> shape, N root, Function<? super N, ? extends T> element,
+            Comparator<? super T> comparator) {
+        this(shape, element, comparator, null, root);
+    }
+
+    private TreeSpliterator(Shape<N> shape, Function<? super N, ? extends T> element,
+            Comparator<? super T> comparator, N head, N sub) {
+        this.shape = shape;
+        this.element = element;
+        this.comparator = comparator;
+        this.head = head;
+        this.sub = sub;
+        this.st = null;
+    }
+
+    public Spliterator<T> trySplit() {
+        if (st != null || sub == null)
+            return null;
+        // Without a head, a subtree with no left child has nothing
+        // to give away; take its root as the head and split its
+        // right subtree instead.
+        while (head == null && shape.left(sub) == null) {
+            head = sub;
+            sub = shape.right(sub);
+            if (sub == null)
+                return null;
+        }
+        Spliterator<T> prefix = new TreeSpliterator<N, T>(shape, element, comparator,
+                head, shape.left(sub));
+        head = sub;
+        sub = shape.right(sub);
+        return prefix;
+    }
+
+    /**
+     * Start traversal, if it hasn't been started already.
+     */
+    private void start() {
+        if (st == null) {
+            remaining = estimateSize();
+            st = new ArrayStack<N>();
+            pushLeftSpine(sub);
+            sub = null;
+        }
+    }
+
+    private void pushLeftSpine(N node) {
+        for (; node != null; node = shape.left(node))
+            st.push(node);
+    }
+
+    public boolean tryAdvance(Consumer<? super T> action) {
+        start();
+        N node;
+        if (head != null) {
+            // The head stands alone; its right subtree holds sub
+            // and more besides.
+            node = head;
+            head = null;
+        }
+        else if (! st.isEmpty()) {
+            node = st.pop();
+            pushLeftSpine(shape.right(node));
+        }
+        else
+            return false;
+        remaining--;
+        action.accept(element.apply(node));
+        return true;
+    }
+
+    public void forEachRemaining(Consumer<? super T> action) {
+        start();
+        if (head != null) {
+            N node = head;
+            head = null;
+            remaining--;
+            action.accept(element.apply(node));
+        }
+        while (! st.isEmpty()) {
+            N node = st.pop();
+            pushLeftSpine(shape.right(node));
+            remaining--;
+            action.accept(element.apply(node));
+        }
+    }
+
+    public long estimateSize() {
+        if (st == null)
+            return (head == null ? 0 : 1) + shape.size(sub);
+        else
+            return remaining;
+    }
+
+    public int characteristics() {
+        return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+    }
+
+    public Comparator<? super T> getComparator() {
+        return comparator;
+    }
+}
@@ -0,0 +1,192 @@
+package impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * TreeTasks
+ *
+ * The fork-join tasks behind the trees' parallel bulk operations.
+ * Each task works on one subtree: while the subtree is big enough,
+ * it forks a task for the smaller child's subtree, does the root,
+ * and goes on down into the bigger child's; below THRESHOLD nodes it
+ * just walks what is left, since a task costs more than that much
+ * work, and then joins the tasks it forked. The subtrees of a
+ * balanced tree are about the same size, so the work divides evenly.
+ * Going down in a loop rather than by recursion keeps the stack
+ * shallow however unbalanced the tree is, such as a BasicBSTMap
+ * built from keys in order.
+ *
+ * The tasks run in the common fork-join pool. Like the iterators,
+ * they assume the tree's shape does not change while they run.
+ */
+
+final class TreeTasks {
+
+    /**
+     * The size of the biggest subtree done by one thread without
+     * forking
+     */
+    static final int THRESHOLD = 1 << 12;
+
+    /**
+     * How to get at the nodes of a particular tree and their
+     * associations.
+     * @param <N> The node-type of the tree
+     * @param <K> The key-type of the map
+     * @param <V> The value-type of the map
+     */
+    interface Access<N, K, V> extends TreeSpliterator.Shape<N> {
+        K key(N node);
+
+        V value(N node);
+
+        void setValue(N node, V value);
+    }
+
+    private TreeTasks() { }
+
+    /**
+     * Apply action to every association in the tree, in no
+     * particular order and on several threads at once.
+     */
+    static <N, K, V> void forEach(Access<N, K, V> access, N root,
+            BiConsumer<? super K, ? super V> action) {
+        new Visit<N>(access, root,
+                node -> action.accept(access.key(node), access.value(node))).invoke();
+    }
+
+    /**
+     * Combine all the values in the tree, in key order, with op.
+     * @return identity if the tree is empty
+     */
+    static <N, K, V> V reduceValues(Access<N, K, V> access, N root, V identity,
+            BinaryOperator<V> op) {
+        return new Reduce<N, K, V>(access, root, identity, op).invoke();
+    }
+
+    /**
+     * Replace every value in the tree with fn of its key and value.
+     */
+    static <N, K, V> void replaceAll(Access<N, K, V> access, N root,
+            BiFunction<? super K, ? super V, ? extends V> fn) {
+        new Visit<N>(access, root,
+                node -> access.setValue(node, fn.apply(access.key(node), access.value(node))))
+                .invoke();
+    }
+
+    /**
+     * Do something to every node of a subtree.
+     */
+    private static class Visit<N> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TreeSpliterator.Shape<N> shape;
+        private final N node;
+        private final Consumer<N> visitor;
+
+        Visit(TreeSpliterator.Shape<N> shape, N node, Consumer<N> visitor) {
+            this.shape = shape;
+            this.node = node;
+            this.visitor = visitor;
+        }
+
+        private void walk(N node) {
+            for (; node != null; node = shape.right(node)) {
+                walk(shape.left(node));
+                visitor.accept(node);
+            }
+        }
+
+        protected void compute() {
+            ArrayStack<Visit<N>> forked = new ArrayStack<Visit<N>>();
+            N current = node;
+            while (shape.size(current) > THRESHOLD) {
+                N left = shape.left(current), right = shape.right(current);
+                boolean leftSmaller = shape.size(left) < shape.size(right);
+                N smaller = leftSmaller ? left : right;
+                if (smaller != null) {
+                    Visit<N> task = new Visit<N>(shape, smaller, visitor);
+                    task.fork();
+                    forked.push(task);
+                }
+                visitor.accept(current);
+                current = leftSmaller ? right : left;
+            }
+            walk(current);
+            while (! forked.isEmpty())
+                forked.pop().join();
+        }
+    }
+
+    private static class Reduce<N, K, V> extends RecursiveTask<V> {
+        private static final long serialVersionUID = 1L;
+
+        private final Access<N, K, V> access;
+        private final N node;
+        private final V identity;
+        private final BinaryOperator<V> op;
+
+        Reduce(Access<N, K, V> access, N node, V identity, BinaryOperator<V> op) {
+            this.access = access;
+            this.node = node;
+            this.identity = identity;
+            this.op = op;
+        }
+
+        private V walk(N node, V soFar) {
+            for (; node != null; node = access.right(node))
+                soFar = op.apply(walk(access.left(node), soFar), access.value(node));
+            return soFar;
+        }
+
+        private Reduce<N, K, V> fork(N subtree) {
+            if (subtree == null)
+                return null;
+            Reduce<N, K, V> task = new Reduce<N, K, V>(access, subtree, identity, op);
+            task.fork();
+            return task;
+        }
+
+        private V join(Reduce<N, K, V> task, V soFar) {
+            return task == null ? soFar : op.apply(soFar, task.join());
+        }
+
+        protected V compute() {
+            // Going down past a node leaves, before the current
+            // subtree in key order, the node's left subtree (forked)
+            // and its value; or, after it, its value and its right
+            // subtree. before is in key order, after in reverse.
+            ArrayList<Reduce<N, K, V>> beforeTasks = new ArrayList<Reduce<N, K, V>>();
+            ArrayList<N> beforeNodes = new ArrayList<N>();
+            ArrayStack<Reduce<N, K, V>> afterTasks = new ArrayStack<Reduce<N, K, V>>();
+            ArrayStack<N> afterNodes = new ArrayStack<N>();
+            N current = node;
+            while (access.size(current) > THRESHOLD) {
+                N left = access.left(current), right = access.right(current);
+                if (access.size(left) < access.size(right)) {
+                    beforeTasks.add(fork(left));
+                    beforeNodes.add(current);
+                    current = right;
+                }
+                else {
+                    afterTasks.push(fork(right));
+                    afterNodes.push(current);
+                    current = left;
+                }
+            }
+            V result = identity;
+            for (int i = 0; i < beforeNodes.size(); i++)
+                result = op.apply(join(beforeTasks.get(i), result), access.value(beforeNodes.get(i)));
+            result = walk(current, result);
+            while (! afterNodes.isEmpty())
+                result = join(afterTasks.pop(), op.apply(result, access.value(afterNodes.pop())));
+            return result;
+        }
+    }
+}
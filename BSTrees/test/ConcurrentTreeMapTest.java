@@ -0,0 +1,181 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import adt.Map;
+
+import impl.AVLTreeMap;
+import impl.ArenaAVLTreeMap;
+import impl.BasicBSTMap;
+import impl.CachedMap;
+import impl.ConcurrentTreeMap;
+import impl.HashIndexedTreeMap;
+import impl.RedBlackTreeMap;
+import impl.SplayTreeMap;
+import impl.TreeMetrics;
+
+/**
+ * Shares each kind of tree, wrapped in a ConcurrentTreeMap, between
+ * threads that look keys up and a thread that keeps putting and
+ * removing other keys, so that the lookups race with rotations.
+ * The keys that are never written must always be found with their
+ * values, and the ones that are must come out right once the
+ * threads are done.
+ */
+public class ConcurrentTreeMapTest {
+
+	private static final int KEYS = 4000, READERS = 3, WRITES = 100000;
+
+	/**
+	 * Fill the map with the even keys, then have readers look those
+	 * up while a writer puts and removes odd keys.
+	 */
+	private void readWhileWriting(Map<Integer,String> tree) throws InterruptedException {
+		final ConcurrentTreeMap<Integer,String> map = new ConcurrentTreeMap<Integer,String>(tree);
+		for (int key = 0; key < KEYS; key += 2)
+			map.put(key, "e" + key);
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final boolean[] done = { false };
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < READERS; t++) {
+			final Random r = new Random(t);
+			threads.add(new Thread(() -> {
+				try {
+					while (! isDone(done)) {
+						int key = 2 * r.nextInt(KEYS / 2);
+						assertEquals("e" + key, map.get(key));
+						assertTrue(map.containsKey(key));
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}));
+		}
+		final boolean[] present = new boolean[KEYS];
+		threads.add(new Thread(() -> {
+			try {
+				Random r = new Random(12);
+				for (int i = 0; i < WRITES; i++) {
+					int key = 2 * r.nextInt(KEYS / 2) + 1;
+					if (r.nextBoolean()) {
+						map.put(key, "o" + key);
+						present[key] = true;
+					}
+					else {
+						map.remove(key);
+						present[key] = false;
+					}
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				synchronized (done) {
+					done[0] = true;
+				}
+			}
+		}));
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		int count = 0;
+		for (Integer key : map) {
+			assertTrue(key % 2 == 0 || present[key]);
+			count++;
+		}
+		for (int key = 1; key < KEYS; key += 2) {
+			assertEquals(present[key] ? "o" + key : null, map.get(key));
+			if (present[key])
+				count--;
+		}
+		assertEquals(KEYS / 2, count);
+	}
+
+	private static boolean isDone(boolean[] done) {
+		synchronized (done) {
+			return done[0];
+		}
+	}
+
+	@Test
+	public void basicReads() throws InterruptedException {
+		readWhileWriting(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlReads() throws InterruptedException {
+		readWhileWriting(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackReads() throws InterruptedException {
+		readWhileWriting(new RedBlackTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void arenaReads() throws InterruptedException {
+		readWhileWriting(new ArenaAVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void hashIndexedReads() throws InterruptedException {
+		readWhileWriting(new HashIndexedTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Lookups of a tree that counts its work go around get(), so
+	 * they don't write to the metrics from several threads at once.
+	 */
+	@Test
+	public void avlWithMetricsReads() throws InterruptedException {
+		AVLTreeMap<Integer,String> tree = new AVLTreeMap<Integer,String>();
+		TreeMetrics metrics = new TreeMetrics();
+		tree.setMetrics(metrics);
+		readWhileWriting(tree);
+		assertEquals(0, metrics.snapshot().operations(TreeMetrics.Operation.GET));
+	}
+
+	// Lookups in these change the map, so they are done under the
+	// exclusive lock.
+
+	@Test
+	public void splayReads() throws InterruptedException {
+		readWhileWriting(new SplayTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void cachedReads() throws InterruptedException {
+		readWhileWriting(new CachedMap<Integer,String>(new RedBlackTreeMap<Integer,String>(), 64));
+	}
+
+	/**
+	 * Each lookup through the lock is one lookup in the wrapped map,
+	 * so the cache counts one miss for a key it doesn't hold.
+	 */
+	@Test
+	public void cachedLookupsCountOnce() {
+		CachedMap<Integer,String> cached = new CachedMap<Integer,String>(new RedBlackTreeMap<Integer,String>(), 64);
+		ConcurrentTreeMap<Integer,String> map = new ConcurrentTreeMap<Integer,String>(cached);
+		map.put(1, "a");
+		assertEquals(null, map.get(2));
+		assertFalse(map.containsKey(2));
+		assertEquals("a", map.get(1));
+		assertEquals("a", map.get(1));
+		assertTrue(map.containsKey(1));
+		assertEquals(2, cached.hits());
+		assertEquals(3, cached.misses());
+	}
+}
@@ -0,0 +1,219 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import impl.AVLTreeMap;
+import impl.Codec;
+import impl.DurableMap;
+import impl.RedBlackTreeMap;
+
+/**
+ * Writes to durable maps, closes them, and opens them again, checking
+ * that everything that was acknowledged comes back: after plain puts
+ * and removes, after a checkpoint, with a torn or corrupted record at
+ * the end of the log, and with several threads writing at once.
+ */
+public class DurableMapTest {
+
+	private Path dir, logFile, snapshotFile;
+
+	@Before
+	public void makeFiles() throws IOException {
+		dir = Files.createTempDirectory("durable");
+		logFile = dir.resolve("log");
+		snapshotFile = dir.resolve("snapshot");
+	}
+
+	@After
+	public void deleteFiles() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(file);
+		}
+	}
+
+	private DurableMap<Integer,String> open() throws IOException {
+		return new DurableMap<Integer,String>(new AVLTreeMap<Integer,String>(),
+				Codec.INT, Codec.STRING, logFile, snapshotFile);
+	}
+
+	private void checkSame(TreeMap<Integer,String> expected, DurableMap<Integer,String> map) {
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Integer key : map)
+			keys.add(key);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+		for (Integer key : expected.keySet())
+			assertEquals(expected.get(key), map.get(key));
+	}
+
+	/**
+	 * Put and remove random keys, writing down what the map should
+	 * hold.
+	 */
+	private void randomChanges(DurableMap<Integer,String> map, TreeMap<Integer,String> expected,
+			Random r, int n) {
+		for (int i = 0; i < n; i++) {
+			int key = r.nextInt(300);
+			if (r.nextInt(3) == 0) {
+				map.remove(key);
+				expected.remove(key);
+			}
+			else {
+				map.put(key, "v" + i);
+				expected.put(key, "v" + i);
+			}
+		}
+	}
+
+	@Test
+	public void replay() throws IOException {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		Random r = new Random(18);
+		try (DurableMap<Integer,String> map = open()) {
+			randomChanges(map, expected, r, 2000);
+			checkSame(expected, map);
+		}
+		try (DurableMap<Integer,String> map = open()) {
+			checkSame(expected, map);
+			randomChanges(map, expected, r, 500);
+		}
+		// replaying into a different kind of tree
+		try (DurableMap<Integer,String> map = new DurableMap<Integer,String>(
+				new RedBlackTreeMap<Integer,String>(), Codec.INT, Codec.STRING, logFile, snapshotFile)) {
+			checkSame(expected, map);
+		}
+	}
+
+	@Test
+	public void tornTail() throws IOException {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		try (DurableMap<Integer,String> map = open()) {
+			for (int i = 0; i < 100; i++) {
+				map.put(i, "v" + i);
+				expected.put(i, "v" + i);
+			}
+			map.put(100, "torn");
+		}
+		// cut the last record short, as a crash while writing it would
+		try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+			log.truncate(log.size() - 3);
+		}
+		try (DurableMap<Integer,String> map = open()) {
+			checkSame(expected, map);
+			map.put(101, "after");
+			expected.put(101, "after");
+			map.put(102, "corrupted");
+		}
+		// flip a byte in the last record's contents
+		try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer b = ByteBuffer.allocate(1);
+			long at = log.size() - 2;
+			log.read(b, at);
+			b.put(0, (byte) (b.get(0) ^ 1));
+			b.rewind();
+			log.write(b, at);
+		}
+		try (DurableMap<Integer,String> map = open()) {
+			checkSame(expected, map);
+		}
+	}
+
+	@Test
+	public void nullValueLeavesLogIntact() throws IOException {
+		try (DurableMap<Integer,String> map = open()) {
+			map.put(1, "one");
+			try {
+				map.put(2, null);
+				fail("null value");
+			} catch (NullPointerException e) { }
+			assertNull(map.get(2));
+			map.put(3, "three");
+			map.put(4, "four");
+		}
+		try (DurableMap<Integer,String> map = open()) {
+			assertEquals("one", map.get(1));
+			assertNull(map.get(2));
+			assertEquals("three", map.get(3));
+			assertEquals("four", map.get(4));
+		}
+	}
+
+	@Test
+	public void checkpoint() throws IOException {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		Random r = new Random(180);
+		try (DurableMap<Integer,String> map = open()) {
+			randomChanges(map, expected, r, 2000);
+			map.checkpoint();
+			assertEquals(0, Files.size(logFile));
+			assertTrue(Files.exists(snapshotFile));
+			randomChanges(map, expected, r, 300);
+		}
+		try (DurableMap<Integer,String> map = open()) {
+			checkSame(expected, map);
+			map.checkpoint();
+			randomChanges(map, expected, r, 300);
+		}
+		try (DurableMap<Integer,String> map = open()) {
+			checkSame(expected, map);
+		}
+	}
+
+	@Test
+	public void concurrentWriters() throws Exception {
+		final int threads = 8, perThread = 500;
+		final DurableMap<Integer,String> map = open();
+		// each thread writes its own keys, and records each one
+		// once put() has returned
+		final int[] acknowledged = new int[threads];
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			writers.add(new Thread(() -> {
+				for (int i = 0; i < perThread; i++) {
+					int key = i * threads + id;
+					map.put(key, "t" + id);
+					if (i % 5 == 0)
+						map.remove(key);
+					synchronized (acknowledged) {
+						acknowledged[id] = i + 1;
+					}
+				}
+			}));
+		}
+		for (Thread writer : writers)
+			writer.start();
+		for (Thread writer : writers)
+			writer.join();
+		map.close();
+
+		try (DurableMap<Integer,String> reopened = open()) {
+			for (int t = 0; t < threads; t++) {
+				assertEquals(perThread, acknowledged[t]);
+				for (int i = 0; i < perThread; i++)
+					assertEquals(i % 5 == 0 ? null : "t" + t, reopened.get(i * threads + t));
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import adt.IntMap;
+
+import impl.IntAVLTreeMap;
+import impl.IntRedBlackTreeMap;
+
+/**
+ * Checks the int-keyed trees against java.util.TreeMap: negative
+ * keys, keys put again with new values, the extremes of int, and
+ * the order keyIterator() gives. The red-black tree runs in
+ * debugging mode, so every put also checks its balance.
+ */
+public class IntMapTest {
+
+	private void checkSame(TreeMap<Integer,String> expected, IntMap<String> tree, int low, int high) {
+		for (int key = low; key <= high; key++) {
+			assertEquals(expected.get(key), tree.get(key));
+			assertEquals(expected.containsKey(key), tree.containsKey(key));
+		}
+		List<Integer> keys = new ArrayList<Integer>();
+		for (PrimitiveIterator.OfInt it = tree.keyIterator(); it.hasNext(); )
+			keys.add(it.nextInt());
+		assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+	}
+
+	/**
+	 * Put random keys from a range around zero, so that many are
+	 * negative and many are put several times.
+	 */
+	private void randomPuts(IntMap<String> tree) {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		Random r = new Random(4);
+		boolean debug = IntRedBlackTreeMap.DEBUG;
+		IntRedBlackTreeMap.DEBUG = true;
+		try {
+			for (int round = 0; round < 20; round++) {
+				for (int i = 0; i < 500; i++) {
+					int key = r.nextInt(2001) - 1000;
+					tree.put(key, "v" + round + "." + i);
+					expected.put(key, "v" + round + "." + i);
+				}
+				checkSame(expected, tree, -1001, 1001);
+			}
+		} finally {
+			IntRedBlackTreeMap.DEBUG = debug;
+		}
+	}
+
+	/**
+	 * Put keys in decreasing order, then the extremes of int, whose
+	 * difference doesn't fit in an int.
+	 */
+	private void orderedPuts(IntMap<String> tree) {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		for (int key = 3000; key >= -3000; key--) {
+			tree.put(key, "k" + key);
+			expected.put(key, "k" + key);
+		}
+		tree.put(Integer.MAX_VALUE, "max");
+		expected.put(Integer.MAX_VALUE, "max");
+		tree.put(Integer.MIN_VALUE, "min");
+		expected.put(Integer.MIN_VALUE, "min");
+		tree.put(0, "zero");
+		expected.put(0, "zero");
+		checkSame(expected, tree, -3001, 3001);
+		assertEquals("max", tree.get(Integer.MAX_VALUE));
+		assertEquals("min", tree.get(Integer.MIN_VALUE));
+		assertEquals(null, tree.get(Integer.MAX_VALUE - 1));
+	}
+
+	@Test
+	public void avlRandomPuts() {
+		randomPuts(new IntAVLTreeMap<String>());
+	}
+
+	@Test
+	public void redBlackRandomPuts() {
+		randomPuts(new IntRedBlackTreeMap<String>());
+	}
+
+	@Test
+	public void avlOrderedPuts() {
+		orderedPuts(new IntAVLTreeMap<String>());
+	}
+
+	@Test
+	public void redBlackOrderedPuts() {
+		orderedPuts(new IntRedBlackTreeMap<String>());
+	}
+
+	@Test
+	public void emptyTrees() {
+		checkSame(new TreeMap<Integer,String>(), new IntAVLTreeMap<String>(), -1, 1);
+		checkSame(new TreeMap<Integer,String>(), new IntRedBlackTreeMap<String>(), -1, 1);
+	}
+}
@@ -0,0 +1,193 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import adt.Map;
+
+import impl.AVLTreeMap;
+import impl.AVLTreeMapAbs;
+import impl.ArenaAVLTreeMap;
+import impl.BTreeMap;
+import impl.BasicBSTMap;
+import impl.CachedMap;
+import impl.HashIndexedTreeMap;
+import impl.RedBlackTreeMap;
+import impl.SplayTreeMap;
+import impl.TreeMetrics;
+
+/**
+ * Checks remove() on each of the tree maps against java.util.TreeMap,
+ * with the AVL and red-black trees in debugging mode so that every
+ * put and remove also verifies the balance conditions.
+ */
+public class MapRemoveTest {
+
+	/**
+	 * Put and remove random keys from a small range (so that many
+	 * removes hit and many miss), checking the whole map against
+	 * a TreeMap after every round.
+	 */
+	private void randomPutsAndRemoves(Map<Integer,String> tree) {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		Random r = new Random(345);
+		boolean debugAVL = AVLTreeMapAbs.DEBUG, debugRBT = RedBlackTreeMap.DEBUG;
+		AVLTreeMapAbs.DEBUG = RedBlackTreeMap.DEBUG = true;
+		try {
+			for (int round = 0; round < 50; round++) {
+				for (int i = 0; i < 200; i++) {
+					int key = r.nextInt(500);
+					if (r.nextInt(3) == 0) {
+						tree.remove(key);
+						expected.remove(key);
+					}
+					else {
+						tree.put(key, "v" + round);
+						expected.put(key, "v" + round);
+					}
+				}
+				checkSame(expected, tree);
+			}
+		} finally {
+			AVLTreeMapAbs.DEBUG = debugAVL;
+			RedBlackTreeMap.DEBUG = debugRBT;
+		}
+	}
+
+	/**
+	 * Fill the tree with ascending keys, then remove all of them.
+	 */
+	private void removeEverything(Map<Integer,String> tree) {
+		for (int i = 0; i < 1000; i++)
+			tree.put(i, "a");
+		for (int i = 0; i < 1000; i += 2)
+			tree.remove(i);
+		for (int i = 999; i > 0; i -= 2)
+			tree.remove(i);
+		for (int i = 0; i < 1000; i++)
+			assertFalse(tree.containsKey(i));
+		assertFalse(tree.iterator().hasNext());
+		tree.remove(5);   // removing from an empty tree does nothing
+		tree.put(5, "b");
+		assertEquals("b", tree.get(5));
+	}
+
+	private void checkSame(TreeMap<Integer,String> expected, Map<Integer,String> tree) {
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (Integer key : tree)
+			keys.add(key);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+		for (int key = -1; key <= 500; key++) {
+			assertEquals(expected.get(key), tree.get(key));
+			assertEquals(expected.containsKey(key), tree.containsKey(key));
+		}
+	}
+
+	@Test
+	public void basicRemove() {
+		randomPutsAndRemoves(new BasicBSTMap<Integer,String>());
+		removeEverything(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlRemove() {
+		randomPutsAndRemoves(new AVLTreeMap<Integer,String>());
+		removeEverything(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackRemove() {
+		randomPutsAndRemoves(new RedBlackTreeMap<Integer,String>());
+		removeEverything(new RedBlackTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void arenaRemove() {
+		randomPutsAndRemoves(new ArenaAVLTreeMap<Integer,String>());
+		removeEverything(new ArenaAVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void hashIndexedRemove() {
+		randomPutsAndRemoves(new HashIndexedTreeMap<Integer,String>());
+		removeEverything(new HashIndexedTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void splayRemove() {
+		randomPutsAndRemoves(new SplayTreeMap<Integer,String>());
+		removeEverything(new SplayTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Small orders give nodes of a few keys, so that splits, borrows
+	 * from siblings and merges all happen often. An odd order is
+	 * rounded down, so 5 gives the same nodes as 4.
+	 */
+	@Test
+	public void bTreeRemove() {
+		for (int order : new int[] { 4, 5, 6 }) {
+			randomPutsAndRemoves(new BTreeMap<Integer,String>(order));
+			removeEverything(new BTreeMap<Integer,String>(order));
+		}
+	}
+
+	/**
+	 * With a cache much smaller than the key range, so that slots
+	 * are taken over often, puts and removes must still never leave
+	 * a stale value in the cache.
+	 */
+	@Test
+	public void cachedRemove() {
+		CachedMap<Integer,String> cached = new CachedMap<Integer,String>(new AVLTreeMap<Integer,String>(), 16);
+		randomPutsAndRemoves(cached);
+		removeEverything(new CachedMap<Integer,String>(new RedBlackTreeMap<Integer,String>(), 16));
+
+		cached.resetCounters();
+		cached.put(7, "x");
+		assertEquals("x", cached.get(7));
+		assertEquals("x", cached.get(7));
+		assertEquals(1, cached.hits());
+		assertEquals(1, cached.misses());
+		assertTrue(cached.containsKey(7));
+		assertFalse(cached.containsKey(-1));
+		assertEquals(2, cached.hits());
+		assertEquals(2, cached.misses());
+	}
+
+	/**
+	 * A lookup that misses the cache searches the wrapped map once,
+	 * even for a key that isn't there.
+	 */
+	@Test
+	public void cachedMissSearchesOnce() {
+		AVLTreeMap<Integer,String> tree = new AVLTreeMap<Integer,String>();
+		TreeMetrics metrics = new TreeMetrics();
+		tree.setMetrics(metrics);
+		CachedMap<Integer,String> cached = new CachedMap<Integer,String>(tree, 16);
+		cached.put(1, "a");
+		assertFalse(cached.containsKey(2));
+		assertTrue(cached.containsKey(1));
+		assertNull(cached.get(2));
+		TreeMetrics.Snapshot counts = metrics.snapshot();
+		assertEquals(2, counts.operations(TreeMetrics.Operation.CONTAINS_KEY));
+		assertEquals(1, counts.operations(TreeMetrics.Operation.GET));
+	}
+
+	@Test
+	public void removeMissingKey() {
+		Map<Integer,String> tree = new RedBlackTreeMap<Integer,String>();
+		tree.put(1, "a");
+		tree.remove(2);
+		assertEquals("a", tree.get(1));
+		assertNull(tree.get(2));
+	}
+}
@@ -0,0 +1,136 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import adt.OrderedMap;
+
+import impl.AVLTreeMap;
+import impl.BasicBSTMap;
+import impl.Codec;
+import impl.MapSnapshot;
+import impl.RedBlackTreeMap;
+
+/**
+ * Saves maps to binary snapshots and loads them into the other kinds
+ * of tree, checking that everything survives the trip and that bad
+ * snapshots are turned away without disturbing the map.
+ */
+public class MapSnapshotTest {
+
+	private final MapSnapshot<Integer,String> snapshot = 
+			new MapSnapshot<Integer,String>(Codec.INT, Codec.STRING);
+
+	private byte[] save(OrderedMap<Integer,String> tree) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		snapshot.write(tree, Channels.newChannel(bytes));
+		return bytes.toByteArray();
+	}
+
+	private void load(byte[] bytes, OrderedMap<Integer,String> tree) throws IOException {
+		snapshot.read(Channels.newChannel(new ByteArrayInputStream(bytes)), tree);
+	}
+
+	private void checkSame(OrderedMap<Integer,String> expected, OrderedMap<Integer,String> tree) {
+		assertEquals(expected.size(), tree.size());
+		for (Integer key : expected)
+			assertEquals(expected.get(key), tree.get(key));
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		OrderedMap<Integer,String> original = new RedBlackTreeMap<Integer,String>();
+		Random r = new Random(16);
+		for (int i = 0; i < 20000; i++)
+			original.put(r.nextInt(100000), "v" + i + (i % 7 == 0 ? "\u00e9\u4e2d" : ""));
+		// a value bigger than the buffer
+		char[] big = new char[100000];
+		Arrays.fill(big, 'x');
+		original.put(-1, new String(big));
+		byte[] bytes = save(original);
+
+		OrderedMap<Integer,String> basic = new BasicBSTMap<Integer,String>();
+		load(bytes, basic);
+		checkSame(original, basic);
+		OrderedMap<Integer,String> avl = new AVLTreeMap<Integer,String>();
+		load(bytes, avl);
+		checkSame(original, avl);
+		OrderedMap<Integer,String> redBlack = new RedBlackTreeMap<Integer,String>();
+		load(bytes, redBlack);
+		checkSame(original, redBlack);
+	}
+
+	@Test
+	public void emptyMap() throws IOException {
+		OrderedMap<Integer,String> tree = new AVLTreeMap<Integer,String>();
+		tree.put(1, "one");
+		load(save(new AVLTreeMap<Integer,String>()), tree);
+		assertEquals(0, tree.size());
+	}
+
+	@Test
+	public void badSnapshots() throws IOException {
+		OrderedMap<Integer,String> original = new AVLTreeMap<Integer,String>();
+		for (int i = 0; i < 1000; i++)
+			original.put(i, "v" + i);
+		byte[] bytes = save(original);
+
+		OrderedMap<Integer,String> tree = new AVLTreeMap<Integer,String>();
+		tree.put(1, "one");
+		try {
+			load(Arrays.copyOf(bytes, bytes.length - 3), tree);
+			fail("truncated snapshot");
+		} catch (IOException e) { }
+		byte[] wrongMagic = Arrays.copyOf(bytes, bytes.length);
+		wrongMagic[0]++;
+		try {
+			load(wrongMagic, tree);
+			fail("not a snapshot");
+		} catch (IOException e) { }
+		assertEquals(1, tree.size());
+		assertEquals("one", tree.get(1));
+	}
+
+	/**
+	 * Keys out of order, or the same key twice, come out as an
+	 * IOException, as the other faults in a snapshot do.
+	 */
+	@Test
+	public void keysOutOfOrder() throws IOException {
+		MapSnapshot<Integer,Integer> ints = new MapSnapshot<Integer,Integer>(Codec.INT, Codec.INT);
+		OrderedMap<Integer,Integer> original = new AVLTreeMap<Integer,Integer>();
+		original.put(5, 50);
+		original.put(7, 70);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ints.write(original, Channels.newChannel(out));
+		// the header is 16 bytes, then each key and value 4 each
+		byte[] backwards = out.toByteArray();
+		ByteBuffer.wrap(backwards).putInt(24, 0);
+		byte[] repeated = out.toByteArray();
+		System.arraycopy(repeated, 16, repeated, 24, 4);
+
+		OrderedMap<Integer,Integer> tree = new AVLTreeMap<Integer,Integer>();
+		tree.put(1, 10);
+		for (byte[] bytes : new byte[][] { backwards, repeated }) {
+			try {
+				ints.read(Channels.newChannel(new ByteArrayInputStream(bytes)), tree);
+				fail("keys out of order");
+			} catch (IOException e) { }
+			assertEquals(1, tree.size());
+			assertEquals(Integer.valueOf(10), tree.get(1));
+		}
+		ints.read(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), tree);
+		assertEquals(2, tree.size());
+		assertEquals(Integer.valueOf(70), tree.get(7));
+	}
+}
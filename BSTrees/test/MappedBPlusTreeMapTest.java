@@ -0,0 +1,254 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import adt.Map;
+
+import impl.BasicBSTMap;
+import impl.Codec;
+import impl.MappedBPlusTreeMap;
+
+/**
+ * Checks MappedBPlusTreeMap against java.util.TreeMap, with pages
+ * small enough that puts split leaves and internal pages and the
+ * tree grows several levels, and with a cache too small for all
+ * the segments, so segments are dropped and mapped again. Also reopens maps from
+ * their files, and runs ThreeTreesTest's workload on one.
+ */
+public class MappedBPlusTreeMapTest {
+
+	private Path file;
+
+	@Before
+	public void makeFile() throws IOException {
+		file = Files.createTempFile("bptree", ".bpt");
+		Files.delete(file);
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * 128-byte pages hold 14 int keys and values in a leaf and
+	 * 14 keys in an internal page.
+	 */
+	private MappedBPlusTreeMap<Integer,Integer> openSmall() throws IOException {
+		return new MappedBPlusTreeMap<Integer,Integer>(file, Codec.INT, Codec.INT, 128, 4);
+	}
+
+	private void checkSame(TreeMap<Integer,Integer> expected, MappedBPlusTreeMap<Integer,Integer> map) {
+		assertEquals(expected.size(), map.size());
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Integer key : map)
+			keys.add(key);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+		for (Integer key : expected.keySet())
+			assertEquals(expected.get(key), map.get(key));
+	}
+
+	@Test
+	public void randomPutsAndRemoves() throws IOException {
+		TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+		Random r = new Random(17);
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			for (int round = 0; round < 20; round++) {
+				for (int i = 0; i < 1000; i++) {
+					int key = r.nextInt(3000) - 1000;
+					if (r.nextInt(3) == 0) {
+						map.remove(key);
+						expected.remove(key);
+					}
+					else {
+						map.put(key, i);
+						expected.put(key, i);
+					}
+				}
+				checkSame(expected, map);
+				for (int key = -1001; key <= 2000; key += 7)
+					assertEquals(expected.containsKey(key), map.containsKey(key));
+			}
+		}
+	}
+
+	@Test
+	public void inOrderPuts() throws IOException {
+		TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			for (int key = 5000; key > 0; key--) {
+				map.put(key, -key);
+				expected.put(key, -key);
+			}
+			for (int key = 5001; key <= 10000; key++) {
+				map.put(key, -key);
+				expected.put(key, -key);
+			}
+			checkSame(expected, map);
+		}
+	}
+
+	/**
+	 * Removing every key empties leaves without merging them;
+	 * iteration has to skip them, and puts fill them again.
+	 */
+	@Test
+	public void lazyDeletes() throws IOException {
+		TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			for (int key = 0; key < 2000; key++)
+				map.put(key, key);
+			for (int key = 0; key < 2000; key++)
+				map.remove(key);
+			assertEquals(0, map.size());
+			assertFalse(map.iterator().hasNext());
+			assertNull(map.get(1000));
+			for (int key = 0; key < 2000; key += 3) {
+				map.put(key, 2 * key);
+				expected.put(key, 2 * key);
+			}
+			checkSame(expected, map);
+		}
+	}
+
+	@Test
+	public void reopen() throws IOException {
+		TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+		Random r = new Random(170);
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			for (int i = 0; i < 5000; i++) {
+				int key = r.nextInt(10000);
+				map.put(key, i);
+				expected.put(key, i);
+			}
+			for (int i = 0; i < 1000; i++) {
+				int key = r.nextInt(10000);
+				map.remove(key);
+				expected.remove(key);
+			}
+		}
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			checkSame(expected, map);
+			map.put(-1, -1);
+			expected.put(-1, -1);
+		}
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			checkSame(expected, map);
+		}
+		try {
+			new MappedBPlusTreeMap<Integer,Integer>(file, Codec.INT, Codec.INT, 256, 4).close();
+			fail("different page size");
+		} catch (IOException e) { }
+	}
+
+	/**
+	 * With a cache of three segments and a tree spanning several
+	 * more, segments are dropped (and forced) and mapped again. (Keys go in in
+	 * order, so that the root, the page under it, and the last leaf,
+	 * which each put goes through, stay in the cache: each segment
+	 * dropped stays mapped until it is garbage collected.)
+	 */
+	@Test
+	public void segmentCache() throws IOException {
+		TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+		try (MappedBPlusTreeMap<Integer,Integer> map = new MappedBPlusTreeMap<Integer,Integer>(
+				file, Codec.INT, Codec.INT, 4096, 3)) {
+			for (int key = 0; key < 500000; key++) {
+				map.put(key, -key);
+				expected.put(key, -key);
+			}
+			checkSame(expected, map);
+			Random r = new Random(1700);
+			for (int i = 0; i < 1000; i++) {
+				int key = r.nextInt(500000);
+				assertEquals(Integer.valueOf(-key), map.get(key));
+			}
+		}
+		assertTrue(Files.size(file) >= 6 << 20);
+
+		// the segments dropped along the way were written out too
+		try (MappedBPlusTreeMap<Integer,Integer> map = new MappedBPlusTreeMap<Integer,Integer>(
+				file, Codec.INT, Codec.INT, 4096, 3)) {
+			assertEquals(500000, map.size());
+			for (int key = 0; key < 500000; key += 997)
+				assertEquals(Integer.valueOf(-key), map.get(key));
+		}
+	}
+
+	@Test
+	public void clear() throws IOException {
+		TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			for (int key = 0; key < 3000; key++)
+				map.put(key, key);
+			map.clear();
+			assertEquals(0, map.size());
+			assertFalse(map.iterator().hasNext());
+			for (int key = 0; key < 3000; key += 2) {
+				map.put(key, -key);
+				expected.put(key, -key);
+			}
+			checkSame(expected, map);
+		}
+	}
+
+	@Test
+	public void failedPutChangesNothing() throws IOException {
+		try (MappedBPlusTreeMap<Integer,Integer> map = openSmall()) {
+			try {
+				map.put(1, null);
+				fail("null value");
+			} catch (NullPointerException e) { }
+			assertEquals(0, map.size());
+			assertFalse(map.containsKey(1));
+			map.put(1, 10);
+			try {
+				map.put(1, null);
+				fail("null value");
+			} catch (NullPointerException e) { }
+			assertEquals(1, map.size());
+			assertEquals(Integer.valueOf(10), map.get(1));
+		}
+	}
+
+	/**
+	 * ThreeTreesTest's put-and-get workload, unchanged, on a map with
+	 * String values stored by a fixed-width codec, giving the same
+	 * map as it does on a BasicBSTMap.
+	 */
+	@Test
+	public void threeTreesWorkload() throws IOException {
+		ThreeTreesTest workload = new ThreeTreesTest();
+		try (MappedBPlusTreeMap<Integer,String> map = new MappedBPlusTreeMap<Integer,String>(
+				file, Codec.INT, Codec.fixedString(8))) {
+			Map<Integer,String> basic = new BasicBSTMap<Integer,String>();
+			workload.combineTest(map, new Random(3), 5000, 20000, 2);
+			workload.combineTest(basic, new Random(3), 5000, 20000, 2);
+			List<Integer> keys = new ArrayList<Integer>();
+			for (Integer key : map) {
+				keys.add(key);
+				assertEquals(basic.get(key), map.get(key));
+			}
+			List<Integer> basicKeys = new ArrayList<Integer>();
+			for (Integer key : basic)
+				basicKeys.add(key);
+			assertEquals(basicKeys, keys);
+		}
+	}
+}
@@ -0,0 +1,558 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import adt.Map;
+import adt.OrderedMap;
+
+import impl.AVLTreeMap;
+import impl.AVLTreeMapAbs;
+import impl.BasicBSTMap;
+import impl.HashIndexedTreeMap;
+import impl.RedBlackTreeMap;
+import impl.ShapeStats;
+import impl.TreeMetrics;
+import impl.TreeMetrics.Operation;
+import impl.TreeMetrics.Rotation;
+
+/**
+ * Checks the OrderedMap operations (order statistics, nearest-key
+ * searches, range iteration, bulk loading, batch puts, streams,
+ * parallel bulk operations, freezing, metrics, and shape reports)
+ * of the three tree maps against java.util.TreeMap, on trees built by 
+ * random puts and removes (so that every kind of rebalancing has 
+ * had to keep the subtree sizes right).
+ */
+public class OrderedMapTest {
+
+	private static final int RANGE = 1000;
+
+	/**
+	 * Fill the tree and a TreeMap with the same random puts and
+	 * removes of even keys from [0, RANGE), so that odd keys can be
+	 * used to probe between keys.
+	 */
+	private TreeMap<Integer,String> fill(OrderedMap<Integer,String> tree) {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		Random r = new Random(345);
+		for (int i = 0; i < 3000; i++) {
+			int key = 2 * r.nextInt(RANGE / 2);
+			if (r.nextInt(4) == 0) {
+				tree.remove(key);
+				expected.remove(key);
+			}
+			else {
+				tree.put(key, "v" + i);
+				expected.put(key, "v" + i);
+			}
+		}
+		return expected;
+	}
+
+	private void checkOrderStatistics(OrderedMap<Integer,String> tree) {
+		TreeMap<Integer,String> expected = fill(tree);
+		ArrayList<Integer> keys = new ArrayList<Integer>(expected.keySet());
+
+		assertEquals(expected.size(), tree.size());
+		for (int key = -1; key <= RANGE; key++)
+			assertEquals("rank of " + key, expected.headMap(key).size(), tree.rank(key));
+		for (int i = 0; i < keys.size(); i++)
+			assertEquals(keys.get(i), tree.select(i));
+		for (int lo = -1; lo <= RANGE; lo += 7)
+			for (int hi = -1; hi <= RANGE; hi += 13) {
+				int count = lo < hi ? expected.subMap(lo, hi).size() : 0;
+				assertEquals(lo + " to " + hi, count, tree.countRange(lo, hi));
+			}
+
+		try {
+			tree.select(tree.size());
+			fail("select past the end");
+		} catch (IndexOutOfBoundsException e) { }
+	}
+
+	private ArrayList<Integer> drain(Iterator<Integer> it) {
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		while (it.hasNext())
+			keys.add(it.next());
+		return keys;
+	}
+
+	private void checkSearches(OrderedMap<Integer,String> tree) {
+		TreeMap<Integer,String> expected = fill(tree);
+
+		for (int key = -1; key <= RANGE; key++) {
+			assertEquals("floor of " + key, expected.floorKey(key), tree.floorKey(key));
+			assertEquals("ceiling of " + key, expected.ceilingKey(key), tree.ceilingKey(key));
+		}
+		for (int lo = -1; lo <= RANGE; lo += 7) {
+			assertEquals("tail from " + lo, new ArrayList<Integer>(expected.tailMap(lo).keySet()), 
+					drain(tree.tailIterator(lo)));
+			for (int hi = lo; hi <= RANGE; hi += 61)
+				assertEquals(lo + " to " + hi, new ArrayList<Integer>(expected.subMap(lo, hi).keySet()),
+						drain(tree.range(lo, hi)));
+		}
+	}
+
+	@Test
+	public void basicOrderStatistics() {
+		checkOrderStatistics(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlOrderStatistics() {
+		checkOrderStatistics(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackOrderStatistics() {
+		checkOrderStatistics(new RedBlackTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void basicSearches() {
+		checkSearches(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlSearches() {
+		checkSearches(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackSearches() {
+		checkSearches(new RedBlackTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Load the tree from sorted arrays, check it, and check that it
+	 * still takes puts and removes afterward.
+	 */
+	private void checkLoadSorted(OrderedMap<Integer,String> tree) {
+		boolean debugAVL = AVLTreeMapAbs.DEBUG, debugRBT = RedBlackTreeMap.DEBUG;
+		AVLTreeMapAbs.DEBUG = RedBlackTreeMap.DEBUG = true;
+		try {
+			for (int n = 0; n < 70; n++) {
+				Integer[] keys = new Integer[n];
+				String[] values = new String[n];
+				for (int i = 0; i < n; i++) {
+					keys[i] = 3 * i;
+					values[i] = "v" + i;
+				}
+				tree.put(-1, "gone after loading");
+				tree.loadSorted(keys, values);
+				assertEquals(n, tree.size());
+				assertEquals(null, tree.get(-1));
+				for (int i = 0; i < n; i++) {
+					assertEquals(keys[i], tree.select(i));
+					assertEquals(values[i], tree.get(keys[i]));
+				}
+				tree.put(1, "one");
+				tree.remove(0);
+				assertEquals(n == 0 ? 1 : n, tree.size());
+			}
+
+			try {
+				tree.loadSorted(new Integer[] {1, 3, 2}, new String[] {"a", "b", "c"});
+				fail("out of order keys");
+			} catch (IllegalArgumentException e) { }
+			assertEquals("one", tree.get(1));   // still the old tree
+		} finally {
+			AVLTreeMapAbs.DEBUG = debugAVL;
+			RedBlackTreeMap.DEBUG = debugRBT;
+		}
+	}
+
+	@Test
+	public void basicLoadSorted() {
+		checkLoadSorted(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlLoadSorted() {
+		checkLoadSorted(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackLoadSorted() {
+		checkLoadSorted(new RedBlackTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void hashIndexedLoadSorted() {
+		checkLoadSorted(new HashIndexedTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Merge random batches (with repeated keys, some already in the
+	 * tree and some not) into the tree, checking it after each one.
+	 */
+	private void checkPutAll(OrderedMap<Integer,String> tree) {
+		boolean debugAVL = AVLTreeMapAbs.DEBUG, debugRBT = RedBlackTreeMap.DEBUG;
+		AVLTreeMapAbs.DEBUG = RedBlackTreeMap.DEBUG = true;
+		try {
+			TreeMap<Integer,String> expected = fill(tree);
+			Random r = new Random(17);
+			for (int round = 0; round < 40; round++) {
+				int n = r.nextInt(round < 20 ? 10 : 400);
+				Integer[] keys = new Integer[n];
+				String[] values = new String[n];
+				for (int i = 0; i < n; i++) {
+					keys[i] = r.nextInt(4 * RANGE) - RANGE;
+					values[i] = "b" + round + "." + i;
+					expected.put(keys[i], values[i]);
+				}
+				tree.putAll(keys, values);
+
+				assertEquals(expected.size(), tree.size());
+				int i = 0;
+				for (Integer key : expected.keySet()) {
+					assertEquals(key, tree.select(i++));
+					assertEquals(expected.get(key), tree.get(key));
+				}
+			}
+		} finally {
+			AVLTreeMapAbs.DEBUG = debugAVL;
+			RedBlackTreeMap.DEBUG = debugRBT;
+		}
+	}
+
+	@Test
+	public void basicPutAll() {
+		checkPutAll(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlPutAll() {
+		checkPutAll(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackPutAll() {
+		checkPutAll(new RedBlackTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void hashIndexedPutAll() {
+		checkPutAll(new HashIndexedTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Check that the streams, sequential and parallel, see the same
+	 * keys and entries as TreeMap does, in the same order, and that 
+	 * splitting keeps the sizes exact.
+	 */
+	private void checkStreams(OrderedMap<Integer,String> tree) {
+		TreeMap<Integer,String> expected = fill(tree);
+		ArrayList<Integer> keys = new ArrayList<Integer>(expected.keySet());
+
+		assertEquals(keys, tree.keys().collect(Collectors.toList()));
+		assertEquals(keys, tree.keys().parallel().collect(Collectors.toList()));
+		assertEquals(new ArrayList<java.util.Map.Entry<Integer,String>>(expected.entrySet()),
+				tree.entries().parallel().collect(Collectors.toList()));
+
+		Spliterator<Integer> suffix = tree.spliterator();
+		assertEquals(expected.size(), suffix.estimateSize());
+		Spliterator<Integer> prefix = suffix.trySplit();
+		assertEquals(expected.size(), prefix.estimateSize() + suffix.estimateSize());
+		ArrayList<Integer> split = new ArrayList<Integer>();
+		prefix.forEachRemaining(split::add);
+		suffix.forEachRemaining(split::add);
+		assertEquals(keys, split);
+	}
+
+	@Test
+	public void basicStreams() {
+		checkStreams(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlStreams() {
+		checkStreams(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackStreams() {
+		checkStreams(new RedBlackTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Run the parallel bulk operations on a tree big enough that
+	 * they fork.
+	 */
+	private void checkBulk(OrderedMap<Integer,String> tree) {
+		TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+		Random r = new Random(99);
+		for (int i = 0; i < 50000; i++) {
+			int key = r.nextInt(100000);
+			tree.put(key, "" + (i % 10));
+			expected.put(key, "" + (i % 10));
+		}
+
+		final AtomicInteger keySum = new AtomicInteger();
+		tree.forEachParallel((key, value) -> keySum.addAndGet(key));
+		int expectedSum = 0;
+		for (int key : expected.keySet())
+			expectedSum += key;
+		assertEquals(expectedSum, keySum.get());
+
+		// concatenation isn't commutative, so this checks the order
+		assertEquals(String.join("", expected.values()), tree.reduceValues("", String::concat));
+
+		tree.replaceAllValues((key, value) -> key + value);
+		for (int key : expected.keySet())
+			assertEquals(key + expected.get(key), tree.get(key));
+	}
+
+	@Test
+	public void basicBulk() {
+		checkBulk(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlBulk() {
+		checkBulk(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackBulk() {
+		checkBulk(new RedBlackTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Run the parallel bulk operations on a BasicBSTMap built from
+	 * keys in order, which is one long path, far deeper than a stack
+	 * could follow by recursion.
+	 */
+	private void checkBulkOnPath(boolean ascending) {
+		final int n = 30000;
+		OrderedMap<Integer,String> tree = new BasicBSTMap<Integer,String>();
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			int key = ascending ? i : n - 1 - i;
+			tree.put(key, "" + (key % 10));
+		}
+		for (int key = 0; key < n; key++)
+			values.append(key % 10);
+
+		final AtomicInteger count = new AtomicInteger();
+		tree.forEachParallel((key, value) -> count.incrementAndGet());
+		assertEquals(n, count.get());
+		assertEquals(values.toString(), tree.reduceValues("", String::concat));
+		tree.replaceAllValues((key, value) -> key + value);
+		for (int key = 0; key < n; key += 97)
+			assertEquals(key + "" + (key % 10), tree.get(key));
+	}
+
+	@Test
+	public void basicBulkAscending() {
+		checkBulkOnPath(true);
+	}
+
+	@Test
+	public void basicBulkDescending() {
+		checkBulkOnPath(false);
+	}
+
+	/**
+	 * Check that a frozen copy finds every key the tree has, none
+	 * that it hasn't, iterates in order, and stays as it was when
+	 * the tree changes or someone tries to change it.
+	 */
+	private void checkFreeze(OrderedMap<Integer,String> tree) {
+		TreeMap<Integer,String> expected = fill(tree);
+		Map<Integer,String> frozen = tree.freeze();
+		for (int key = -1; key <= RANGE; key++) {
+			assertEquals(expected.get(key), frozen.get(key));
+			assertEquals(expected.containsKey(key), frozen.containsKey(key));
+		}
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int key : frozen)
+			keys.add(key);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+
+		tree.put(1, "new");
+		assertEquals(null, frozen.get(1));
+		try {
+			frozen.put(1, "new");
+			fail("put on a frozen map");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			frozen.remove(expected.firstKey());
+			fail("remove on a frozen map");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void basicFreeze() {
+		checkFreeze(new BasicBSTMap<Integer,String>());
+	}
+
+	@Test
+	public void avlFreeze() {
+		checkFreeze(new AVLTreeMap<Integer,String>());
+	}
+
+	@Test
+	public void redBlackFreeze() {
+		checkFreeze(new RedBlackTreeMap<Integer,String>());
+	}
+
+	/**
+	 * Check the counts for ascending puts (which every balanced tree
+	 * has to rotate for), then gets, then removes.
+	 */
+	private void checkMetrics(OrderedMap<Integer,String> tree, TreeMetrics metrics, boolean balanced) {
+		for (int i = 0; i < 1000; i++)
+			tree.put(i, "v");
+		TreeMetrics.Snapshot counts = metrics.snapshot();
+		assertEquals(1000, counts.operations(Operation.PUT));
+		assertEquals(balanced, counts.rotations(Rotation.LEFT) > 0);
+		assertEquals(0, counts.rotations(Rotation.RIGHT));
+		// each put searches down to the parent-to-be
+		if (balanced)
+			assertEquals(true, counts.maxPathLength(Operation.PUT) <= 2 * 10);
+		else
+			assertEquals(999, counts.maxPathLength(Operation.PUT));
+
+		metrics.reset();
+		for (int i = 0; i < 1000; i++)
+			tree.get(i);
+		tree.containsKey(-1);
+		counts = metrics.snapshot();
+		assertEquals(1000, counts.operations(Operation.GET));
+		assertEquals(1, counts.operations(Operation.CONTAINS_KEY));
+		// a lookup compares once at each node on its path
+		assertEquals(counts.comparisons(Operation.GET), counts.nodesVisited(Operation.GET));
+		assertEquals(counts.averagePathLength(Operation.GET) * 1000, 
+				(double) counts.nodesVisited(Operation.GET), 1e-6);
+		assertEquals(0, counts.rotations());
+
+		for (int i = 0; i < 1000; i += 2)
+			tree.remove(i);
+		assertEquals(500, metrics.snapshot().operations(Operation.REMOVE));
+		assertEquals(1000, metrics.snapshot().operations(Operation.GET));
+	}
+
+	@Test
+	public void basicMetrics() {
+		BasicBSTMap<Integer,String> tree = new BasicBSTMap<Integer,String>();
+		TreeMetrics metrics = new TreeMetrics();
+		tree.setMetrics(metrics);
+		checkMetrics(tree, metrics, false);
+		assertEquals(0, metrics.snapshot().recolors());
+		tree.setMetrics(null);
+		tree.get(1);
+		assertEquals(1000, metrics.snapshot().operations(Operation.GET));
+	}
+
+	@Test
+	public void avlMetrics() {
+		AVLTreeMap<Integer,String> tree = new AVLTreeMap<Integer,String>();
+		TreeMetrics metrics = new TreeMetrics();
+		tree.setMetrics(metrics);
+		checkMetrics(tree, metrics, true);
+		assertEquals(0, metrics.snapshot().recolors());
+	}
+
+	@Test
+	public void redBlackMetrics() {
+		RedBlackTreeMap<Integer,String> tree = new RedBlackTreeMap<Integer,String>();
+		TreeMetrics metrics = new TreeMetrics();
+		tree.setMetrics(metrics);
+		checkMetrics(tree, metrics, true);
+		assertEquals(true, metrics.snapshot().recolors() > 0);
+	}
+
+	/**
+	 * Check that a full shape report counts every key once, at a
+	 * depth no greater than its height, and that a sampled report
+	 * agrees with it as far as it can.
+	 */
+	private void checkShape(ShapeStats full, ShapeStats sampled, int n) {
+		assertEquals(n, full.nodeCount());
+		assertEquals(n, full.samples());
+		long total = 0;
+		for (long count : full.depthHistogram())
+			total += count;
+		assertEquals(n, total);
+		assertEquals(1, full.depthHistogram()[1]);
+		assertEquals(false, full.isSampled());
+
+		assertEquals(n, sampled.nodeCount());
+		assertEquals(true, sampled.isSampled());
+		assertEquals(500, sampled.samples());
+		assertEquals(true, sampled.height() <= full.height());
+		assertEquals(full.averageDepth(), sampled.averageDepth(), full.averageDepth() / 5);
+	}
+
+	@Test
+	public void basicShape() {
+		BasicBSTMap<Integer,String> tree = new BasicBSTMap<Integer,String>();
+		assertEquals(0, tree.shapeStats().height());
+		assertEquals(0, tree.shapeStats(500, new Random(1)).samples());
+		fill(tree);
+		checkShape(tree.shapeStats(), tree.shapeStats(500, new Random(1)), tree.size());
+		assertEquals(ShapeStats.NONE, tree.shapeStats().blackHeight());
+		assertEquals(null, tree.shapeStats().balanceFactors());
+
+		// ascending keys make a path
+		tree = new BasicBSTMap<Integer,String>();
+		for (int i = 0; i < 100; i++)
+			tree.put(i, "v");
+		assertEquals(100, tree.shapeStats().height());
+		assertEquals(50.5, tree.shapeStats().averageDepth(), 1e-9);
+	}
+
+	@Test
+	public void avlShape() {
+		AVLTreeMap<Integer,String> tree = new AVLTreeMap<Integer,String>();
+		fill(tree);
+		ShapeStats full = tree.shapeStats();
+		checkShape(full, tree.shapeStats(500, new Random(1)), tree.size());
+		long balanced = 0;
+		for (int factor = -1; factor <= 1; factor++)
+			balanced += full.balanceFactors().getOrDefault(factor, 0L);
+		assertEquals(tree.size(), balanced);
+		assertEquals(true, full.height() <= 1.45 * Math.log(tree.size() + 2) / Math.log(2));
+	}
+
+	@Test
+	public void redBlackShape() {
+		RedBlackTreeMap<Integer,String> tree = new RedBlackTreeMap<Integer,String>();
+		fill(tree);
+		ShapeStats full = tree.shapeStats();
+		checkShape(full, tree.shapeStats(500, new Random(1)), tree.size());
+		// every path has the same number of black nodes, and no two
+		// reds in a row, so the height is at most twice that
+		assertEquals(true, full.height() <= 2 * (full.blackHeight() - 1));
+		assertEquals(1, new RedBlackTreeMap<Integer,String>().shapeStats().blackHeight());
+	}
+
+	@Test
+	public void emptyTree() {
+		OrderedMap<Integer,String> tree = new RedBlackTreeMap<Integer,String>();
+		assertEquals(0, tree.size());
+		assertEquals(0, tree.rank(5));
+		assertEquals(0, tree.countRange(0, 10));
+		assertEquals(null, tree.floorKey(5));
+		assertEquals(null, tree.ceilingKey(5));
+		assertEquals(false, tree.tailIterator(5).hasNext());
+		assertEquals(0, tree.keys().parallel().count());
+		assertEquals("none", tree.reduceValues("none", String::concat));
+		assertEquals(null, tree.freeze().get(5));
+		assertEquals(false, tree.freeze().iterator().hasNext());
+	}
+}
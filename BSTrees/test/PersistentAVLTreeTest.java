@@ -0,0 +1,117 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import impl.PersistentAVLTree;
+import impl.PersistentAVLTreeMap;
+
+/**
+ * Checks the persistent AVL tree against java.util.TreeMap, keeping
+ * every version made along the way and checking at the end that
+ * later changes left each of them as it was.
+ */
+public class PersistentAVLTreeTest {
+
+	private void checkSame(TreeMap<Integer,String> expected, PersistentAVLTree<Integer,String> version) {
+		assertEquals(expected.size(), version.size());
+		assertEquals(expected.isEmpty(), version.isEmpty());
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Integer key : version)
+			keys.add(key);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+		for (int key = -1; key <= 300; key++) {
+			assertEquals(expected.get(key), version.get(key));
+			assertEquals(expected.containsKey(key), version.containsKey(key));
+		}
+	}
+
+	@Test
+	public void oldVersionsUnchanged() {
+		List<PersistentAVLTree<Integer,String>> versions = new ArrayList<PersistentAVLTree<Integer,String>>();
+		List<TreeMap<Integer,String>> expected = new ArrayList<TreeMap<Integer,String>>();
+		PersistentAVLTree<Integer,String> version = PersistentAVLTree.empty();
+		TreeMap<Integer,String> contents = new TreeMap<Integer,String>();
+		Random r = new Random(13);
+		for (int i = 0; i < 3000; i++) {
+			int key = r.nextInt(300);
+			if (r.nextInt(3) == 0) {
+				version = version.without(key);
+				contents.remove(key);
+			}
+			else {
+				version = version.with(key, "v" + i);
+				contents.put(key, "v" + i);
+			}
+			if (i % 50 == 0) {
+				versions.add(version);
+				expected.add(new TreeMap<Integer,String>(contents));
+			}
+		}
+		checkSame(contents, version);
+		for (int i = 0; i < versions.size(); i++)
+			checkSame(expected.get(i), versions.get(i));
+		checkSame(new TreeMap<Integer,String>(), PersistentAVLTree.<Integer,String>empty());
+	}
+
+	@Test
+	public void unchangedVersionsAreShared() {
+		String one = "one";
+		PersistentAVLTree<Integer,String> version = PersistentAVLTree.<Integer,String>empty().with(1, one);
+		assertSame(version, version.with(1, one));
+		assertSame(version, version.without(2));
+		assertEquals("uno", version.with(1, "uno").get(1));
+		assertEquals(one, version.get(1));
+	}
+
+	@Test
+	public void mapSnapshots() {
+		PersistentAVLTreeMap<Integer,String> map = new PersistentAVLTreeMap<Integer,String>();
+		TreeMap<Integer,String> contents = new TreeMap<Integer,String>();
+		List<PersistentAVLTree<Integer,String>> snapshots = new ArrayList<PersistentAVLTree<Integer,String>>();
+		List<TreeMap<Integer,String>> expected = new ArrayList<TreeMap<Integer,String>>();
+		Random r = new Random(130);
+		Iterator<Integer> early = null;
+		List<Integer> earlyKeys = null;
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 200; i++) {
+				int key = r.nextInt(300);
+				if (r.nextInt(3) == 0) {
+					map.remove(key);
+					contents.remove(key);
+				}
+				else {
+					map.put(key, "r" + round);
+					contents.put(key, "r" + round);
+				}
+			}
+			assertEquals(contents.size(), map.size());
+			for (int key = 0; key < 300; key++) {
+				assertEquals(contents.get(key), map.get(key));
+				assertEquals(contents.containsKey(key), map.containsKey(key));
+			}
+			snapshots.add(map.snapshot());
+			expected.add(new TreeMap<Integer,String>(contents));
+			if (round == 5) {
+				early = map.iterator();
+				earlyKeys = new ArrayList<Integer>(contents.keySet());
+			}
+		}
+		for (int i = 0; i < snapshots.size(); i++)
+			checkSame(expected.get(i), snapshots.get(i));
+
+		// an iterator goes on over the version it started with
+		List<Integer> keys = new ArrayList<Integer>();
+		while (early.hasNext())
+			keys.add(early.next());
+		assertEquals(earlyKeys, keys);
+	}
+}